@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm;
+
+import java.awt.Rectangle;
+
+/**
+ * Synthetic inputs of the benchmarks. The object is a phase bump with a
+ * slightly lower amplitude at its center, and the off-axis reference has a
+ * carrier of a quarter of the sampling frequency along both axes, so the +1
+ * order sits halfway between the center and the corner of the shifted
+ * spectrum.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class SyntheticHologram {
+
+    // Carrier period [px]
+    private static final int PERIOD = 4;
+    private static final float MAX_PHASE = 2.0f;
+
+    private SyntheticHologram() {
+    }
+
+    /**
+     * Amplitude of the object
+     *
+     * @param width - Width [px]
+     * @param height - Height [px]
+     * @return [height][width] amplitude
+     */
+    public static float[][] objectAmplitude(int width, int height) {
+        float[][] amplitude = new float[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                amplitude[y][x] = 0.8f - 0.2f * bump(x, y, width, height);
+            }
+        }
+        return amplitude;
+    }
+
+    /**
+     * Phase of the object
+     *
+     * @param width - Width [px]
+     * @param height - Height [px]
+     * @return [height][width] phase [rad]
+     */
+    public static float[][] objectPhase(int width, int height) {
+        float[][] phase = new float[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                phase[y][x] = MAX_PHASE * bump(x, y, width, height);
+            }
+        }
+        return phase;
+    }
+
+    /**
+     * Off-axis hologram of the object with a unit reference
+     *
+     * @param width - Width [px]
+     * @param height - Height [px]
+     * @return row-major intensity
+     */
+    public static float[] create(int width, int height) {
+        float[][] amplitude = objectAmplitude(width, height);
+        float[][] phase = objectPhase(width, height);
+        float[] hologram = new float[width * height];
+        double k = 2 * Math.PI / PERIOD;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float a = amplitude[y][x];
+                double carrier = k * (x + y) - phase[y][x];
+                hologram[y * width + x] = (float) (1 + a * a + 2 * a * Math.cos(carrier));
+            }
+        }
+        return hologram;
+    }
+
+    /**
+     * Bounds of a filter around the +1 order in the shifted spectrum
+     *
+     * @param width - Width [px]
+     * @param height - Height [px]
+     * @return filter bounds
+     */
+    public static Rectangle orderBounds(int width, int height) {
+        int w = width / PERIOD;
+        int h = height / PERIOD;
+        int cx = width / 2 + width / PERIOD;
+        int cy = height / 2 + height / PERIOD;
+        return new Rectangle(cx - w / 2, cy - h / 2, w, h);
+    }
+
+    private static float bump(int x, int y, int width, int height) {
+        double dx = (x - width / 2.0) / (width / 8.0);
+        double dy = (y - height / 2.0) / (height / 8.0);
+        return (float) Math.exp(-0.5 * (dx * dx + dy * dy));
+    }
+}
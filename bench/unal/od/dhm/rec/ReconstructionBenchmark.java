@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import java.util.concurrent.TimeUnit;
+import org.jtransforms.fft.FloatFFT_2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import unal.od.dhm.SyntheticHologram;
+import unal.od.dhm.utils.FFTPlanCache;
+
+/**
+ * Stages of the live reconstruction over a synthetic off-axis hologram. Each
+ * benchmark runs one stage on the buffers left by the previous ones, as the
+ * pipeline does.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+public class ReconstructionBenchmark {
+
+    // Settings, in the units of the settings frame: wavelength, pixel pitch,
+    // tube lens focal length and refocusing distance [um]
+    private static final float LAMBDA = 0.633f;
+    private static final float PITCH = 3.45f;
+    private static final float MAGNIFICATION = 10;
+    private static final float NA = 0.25f;
+    private static final float TL_FOCAL = 200000;
+    private static final float Z = 50;
+    // Residual carrier compensation [spectral px]
+    private static final float TUNING = 0.3f;
+
+    @Param({"512", "1024", "2048", "4096"})
+    private int size;
+
+    private LiveReconstruction_ reco;
+    private ReconstructionBuffers frame;
+    private FloatFFT_2D fft;
+    private AngularSpectrumPropagator propagator;
+    private float[] hologram;
+    private float[] spectrum;
+    private float[] work;
+    // Pixel pitch of the output field [m]
+    private float dx;
+    private float dy;
+
+    @Setup
+    public void setUp() {
+        hologram = SyntheticHologram.create(size, size);
+        ImagePlus imp = new ImagePlus("Hologram", new FloatProcessor(size, size, hologram.clone()));
+
+        reco = new LiveReconstruction_();
+        reco.setup("", imp);
+        reco.setImagingParameters(LAMBDA, PITCH, PITCH, MAGNIFICATION, NA, TL_FOCAL);
+        reco.setTuningParameters(Z, TUNING, TUNING, 0);
+        reco.setFilter(SyntheticHologram.orderBounds(size, size), null);
+
+        // The sizes are powers of two, so the spectrum is packed
+        fft = FFTPlanCache.getFloat2D(size, size);
+        spectrum = hologram.clone();
+        fft.realForward(spectrum);
+        work = new float[size * size];
+
+        frame = new ReconstructionBuffers();
+        frame.ensureSize(size, size);
+        // Every stage takes its inputs from the snapshot of the frame, as in
+        // the live reconstruction
+        frame.params = reco.getParameters();
+        reco.center(spectrum, true, frame);
+        ReconstructionParameters params = frame.params;
+        dx = params.getDx() * size / frame.getOutputWidth();
+        dy = params.getDy() * size / frame.getOutputHeight();
+        propagator = new AngularSpectrumPropagator(frame.getOutputWidth(), frame.getOutputHeight(),
+                params.getWavelength(), params.getRefocusZ(), dx, dy);
+    }
+
+    @Benchmark
+    public float[] forwardFFT() {
+        System.arraycopy(hologram, 0, work, 0, work.length);
+        fft.realForward(work);
+        return work;
+    }
+
+    @Benchmark
+    public ComplexField center() {
+        reco.center(spectrum, true, frame);
+        return frame.outputField;
+    }
+
+    @Benchmark
+    public ComplexField propagate() {
+        propagator.diffract(frame.outputField.getData());
+        return frame.outputField;
+    }
+
+    @Benchmark
+    public ComplexField compensatePhase() {
+        ReconstructionParameters params = frame.params;
+        reco.compensatePhase(frame.outputField, params, dx, dy,
+                params.getCompFxTune(), params.getCompFyTune(), params.getLinTuning());
+        return frame.outputField;
+    }
+
+    @Benchmark
+    public byte[] renderPhase() {
+        frame.renderer.render(frame.outputField, DisplayRenderer.PHASE, false,
+                frame.display, frame.pixels, frame.range);
+        return frame.pixels;
+    }
+
+    @Benchmark
+    public byte[] renderAmplitude() {
+        frame.renderer.render(frame.outputField, DisplayRenderer.AMPLITUDE, true,
+                frame.display, frame.pixels, frame.range);
+        return frame.pixels;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.sim;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import unal.od.dhm.SyntheticHologram;
+
+/**
+ * Stages of the simulated imaging system over a synthetic object. The first
+ * lens and the second lens transform their field in place, so their input is
+ * restored before every invocation, outside of the measurement.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+public class SimulationBenchmark {
+
+    /**
+     * Size and object of the simulation
+     */
+    @State(Scope.Thread)
+    public static class Config {
+
+        @Param({"512", "1024", "2048", "4096"})
+        int size;
+
+        float[][] amplitude;
+        float[][] phase;
+
+        @Setup
+        public void setUp() {
+            amplitude = SyntheticHologram.objectAmplitude(size, size);
+            phase = SyntheticHologram.objectPhase(size, size);
+        }
+
+        /**
+         * Imager with the default system of the simulation frame: 200 um
+         * sample, HeNe illumination, 40X / 0.65 objective
+         */
+        Imager createImager() {
+            Imager imager = new Imager(null);
+            imager.setInputParameters(200, 200, 1, 2, -Math.PI / 4, Math.PI / 4);
+            imager.setIllumination(633, 0.5);
+            imager.setImaging(40, 0.65, 200);
+            imager.setAngles(true, 0, 0);
+            imager.setRefAmpValue(true, 0);
+            load(imager);
+            imager.calculateParameters();
+            return imager;
+        }
+
+        void load(Imager imager) {
+            imager.setInputImages(2, size, size, amplitude, phase);
+        }
+    }
+
+    /**
+     * Object field, before the first lens
+     */
+    @State(Scope.Thread)
+    public static class ObjectPlane {
+
+        Imager imager;
+        Config config;
+
+        @Setup
+        public void setUp(Config config) {
+            this.config = config;
+            imager = config.createImager();
+        }
+
+        @Setup(Level.Invocation)
+        public void reload() {
+            config.load(imager);
+        }
+    }
+
+    /**
+     * Spectrum of the object, after the first lens
+     */
+    @State(Scope.Thread)
+    public static class FocalPlane {
+
+        Imager imager;
+
+        @Setup
+        public void setUp(Config config) {
+            imager = config.createImager();
+            imager.firstLens();
+        }
+    }
+
+    /**
+     * Filtered spectrum, after the pupil
+     */
+    @State(Scope.Thread)
+    public static class PupilPlane {
+
+        Imager imager;
+
+        @Setup
+        public void setUp(Config config) {
+            imager = config.createImager();
+            imager.firstLens();
+        }
+
+        @Setup(Level.Invocation)
+        public void filter() {
+            imager.pupilPlane();
+        }
+    }
+
+    /**
+     * Image of the object, after the second lens
+     */
+    @State(Scope.Thread)
+    public static class ImagePlane {
+
+        Imager imager;
+
+        @Setup
+        public void setUp(Config config) {
+            imager = config.createImager();
+            imager.firstLens();
+            imager.pupilPlane();
+            imager.secondLens();
+        }
+    }
+
+    @Benchmark
+    public Imager firstLens(ObjectPlane state) {
+        state.imager.firstLens();
+        return state.imager;
+    }
+
+    @Benchmark
+    public Imager pupilPlane(FocalPlane state) {
+        state.imager.pupilPlane();
+        return state.imager;
+    }
+
+    @Benchmark
+    public Imager secondLens(PupilPlane state) {
+        state.imager.secondLens();
+        return state.imager;
+    }
+
+    @Benchmark
+    public Imager createHologram(ImagePlane state) {
+        state.imager.createHologram();
+        return state.imager;
+    }
+}
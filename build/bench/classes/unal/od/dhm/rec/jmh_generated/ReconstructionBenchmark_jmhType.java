@@ -0,0 +1,4 @@
+package unal.od.dhm.rec.jmh_generated;
+public class ReconstructionBenchmark_jmhType extends ReconstructionBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package unal.od.dhm.sim.jmh_generated;
+public class SimulationBenchmark_Config_jmhType extends SimulationBenchmark_Config_jmhType_B3 {
+}
+
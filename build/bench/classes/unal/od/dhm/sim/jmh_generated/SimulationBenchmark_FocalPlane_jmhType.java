@@ -0,0 +1,4 @@
+package unal.od.dhm.sim.jmh_generated;
+public class SimulationBenchmark_FocalPlane_jmhType extends SimulationBenchmark_FocalPlane_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package unal.od.dhm.sim.jmh_generated;
+public class SimulationBenchmark_ObjectPlane_jmhType extends SimulationBenchmark_ObjectPlane_jmhType_B3 {
+}
+
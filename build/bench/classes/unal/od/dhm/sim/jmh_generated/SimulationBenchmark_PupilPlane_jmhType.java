@@ -0,0 +1,4 @@
+package unal.od.dhm.sim.jmh_generated;
+public class SimulationBenchmark_PupilPlane_jmhType extends SimulationBenchmark_PupilPlane_jmhType_B3 {
+}
+
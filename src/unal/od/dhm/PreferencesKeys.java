@@ -73,4 +73,13 @@ public interface PreferencesKeys {
     final static String REC_TL_FOCAL = "REC_TL_FOCAL";
     final static String REC_INPUT_WIDTH = "REC_INPUT_WIDTH";
     final static String REC_INPUT_HEIGHT = "REC_INPUT_HEIGHT";
+    
+    // Display
+    final static String REC_SPECTRUM_SATURATED = "REC_SPECTRUM_SATURATED";
+    
+    // Compute parallelism
+    final static String REC_THREADS_AUTO = "REC_THREADS_AUTO";
+    final static String REC_FFT_THREADS = "REC_FFT_THREADS";
+    final static String REC_KERNEL_THREADS = "REC_KERNEL_THREADS";
+    final static String REC_THREADS_TUNED_SIZE = "REC_THREADS_TUNED_SIZE";
 }
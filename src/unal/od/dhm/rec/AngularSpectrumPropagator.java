@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import org.jtransforms.fft.FloatFFT_2D;
+import unal.od.dhm.utils.ComplexKernels;
+import unal.od.dhm.utils.FFTPlanCache;
+import unal.od.dhm.utils.Parallel;
+
+/**
+ * Angular spectrum propagator for flat {@link ComplexField} data. It is the
+ * same method of JDiffraction's FloatAngularSpectrum, but the transfer
+ * function is stored in the unshifted order of the spectrum, so propagating
+ * needs no centering shifts, and the field is never converted to a jagged
+ * array. Evanescent waves are discarded.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class AngularSpectrumPropagator {
+
+    private final int width;
+    private final int height;
+    // Interleaved transfer function, unshifted
+    private final float[] kernel;
+    // Field being propagated, read by the blocks of the product
+    private float[] field;
+    private final Parallel.Loop productLoop = new Parallel.Loop(this::multiplyBlock);
+
+    /**
+     * Creates the propagator and computes its transfer function.
+     *
+     * @param width - Width [px]
+     * @param height - Height [px]
+     * @param lambda - Wavelength
+     * @param z - Propagation distance
+     * @param dx - Pixel pitch along x
+     * @param dy - Pixel pitch along y
+     */
+    public AngularSpectrumPropagator(int width, int height, float lambda, float z,
+            float dx, float dy) {
+        this.width = width;
+        this.height = height;
+        this.kernel = new float[2 * width * height];
+
+        double invLambda2 = 1.0 / ((double) lambda * lambda);
+        for (int y = 0; y < height; y++) {
+            double fy = frequency(y, height, dy);
+            int offset = 2 * y * width;
+            for (int x = 0; x < width; x++) {
+                double phase = phase(frequency(x, width, dx), fy, invLambda2, z);
+                if (Double.isNaN(phase)) {
+                    continue;
+                }
+                kernel[offset + 2 * x] = (float) Math.cos(phase);
+                kernel[offset + 2 * x + 1] = (float) Math.sin(phase);
+            }
+        }
+    }
+
+    /**
+     * Spatial frequency of an unshifted spectrum index. The centered position
+     * of index k is (k + n / 2) % n, the same one the reconstruction uses.
+     *
+     * @param k - Unshifted index
+     * @param n - Size
+     * @param pitch - Pixel pitch
+     * @return frequency
+     */
+    static double frequency(int k, int n, double pitch) {
+        return ((k + n / 2) % n - n / 2) / (n * pitch);
+    }
+
+    /**
+     * Phase of the angular spectrum transfer function
+     *
+     * @param fx - Frequency along x
+     * @param fy - Frequency along y
+     * @param invLambda2 - 1 / lambda^2
+     * @param z - Propagation distance
+     * @return phase, or NaN for evanescent waves
+     */
+    static double phase(double fx, double fy, double invLambda2, double z) {
+        double root = invLambda2 - fx * fx - fy * fy;
+        if (root < 0) {
+            return Double.NaN;
+        }
+        return 2 * Math.PI * z * Math.sqrt(root);
+    }
+
+    /**
+     * Propagates a field, in place. A cached propagator may be reached from
+     * several threads, so the calls are serialized.
+     *
+     * @param field - Interleaved width x height field
+     */
+    public synchronized void diffract(float[] field) {
+        FloatFFT_2D fft = FFTPlanCache.getFloat2D(height, width);
+        fft.complexForward(field);
+
+        this.field = field;
+        try {
+            productLoop.forRows(height, width);
+        } finally {
+            // The field belongs to the caller
+            this.field = null;
+        }
+
+        fft.complexInverse(field, true);
+    }
+
+    private void multiplyBlock(int block, int start, int end) {
+        ComplexKernels.multiply(field, kernel, start * width, (end - start) * width);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
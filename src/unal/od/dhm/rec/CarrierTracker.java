@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.awt.Rectangle;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Follows the drift of the +1 order across frames. Every few frames the
+ * carrier peak is searched in a small window around its tracked position, in
+ * the spectrum the frame already has, and the estimate is smoothed. The
+ * filter and the carrier compensation are re-centered only when the smoothed
+ * position drifts past a threshold from the applied one, so noise does not
+ * change the settings, nor rebuild the caches derived from them, on every
+ * estimate.
+ * <p>
+ * The tracked position of the order is the center of the filter minus the
+ * carrier compensation, as set by OrderDetector; moving the filter or
+ * changing the compensation by hand restarts the tracking from there.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class CarrierTracker {
+
+    // Frames between estimates
+    private static final int DEFAULT_INTERVAL = 10;
+    // Half size of the search window [px]
+    private static final int SEARCH_RADIUS = 6;
+    // Weight of a new estimate in the smoothed position
+    private static final float SMOOTHING = 0.3f;
+    // Drift of the smoothed position that re-centers the filter [px]
+    private static final float HYSTERESIS = 0.25f;
+    // Estimates weaker than this fraction of the tracked peak are discarded,
+    // as when the beam is blocked
+    private static final float MIN_RELATIVE_POWER = 0.25f;
+
+    private volatile boolean enabled;
+    private volatile int interval = DEFAULT_INTERVAL;
+
+    private int frames;
+    private boolean tracking;
+    // Frames with older settings were acquired before the last re-centering
+    private int minVersion;
+    // Settings the position was taken from
+    private int roiWidth;
+    private int roiHeight;
+    private int[][] mask;
+    private float appliedX;
+    private float appliedY;
+    // Smoothed estimate
+    private float x;
+    private float y;
+    private float power;
+
+    // Scratch of the estimates, so tracking allocates nothing
+    private final Rectangle window = new Rectangle();
+    private final float[] peak = new float[3];
+    private final int[] location = new int[3];
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the tracking, which starts again from the settings
+     * of the next frame
+     *
+     * @param enabled
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        tracking = false;
+        frames = 0;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval - Frames between estimates, at least 1
+     */
+    public void setInterval(int interval) {
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * Takes the spectrum of a frame. On every interval-th frame, estimates the
+     * position of the order and re-centers the filter if it drifted.
+     *
+     * @param spectrum - Unshifted spectrum, complete or packed
+     * @param packed - Whether the spectrum is the packed output of realForward
+     * @param width - Width of the spectrum [px]
+     * @param height - Height of the spectrum [px]
+     * @param params - Settings of the frame
+     * @param settings - Current settings, receives the re-centered ones
+     * @return whether the filter was re-centered
+     */
+    public synchronized boolean update(float[] spectrum, boolean packed, int width, int height,
+            ReconstructionParameters params, AtomicReference<ReconstructionParameters> settings) {
+
+        if (!enabled || !params.isFiltered() || params.getVersion() < minVersion) {
+            return false;
+        }
+
+        // Position given by the settings of the frame
+        float orderX = params.getRoiX() + params.getRoiWidth() / 2 - params.getFxTuning();
+        float orderY = params.getRoiY() + params.getRoiHeight() / 2 - params.getFyTuning();
+        if (!tracking || params.getRoiMask() != mask || params.getRoiWidth() != roiWidth
+                || params.getRoiHeight() != roiHeight
+                || Math.abs(orderX - appliedX) > 1E-3f || Math.abs(orderY - appliedY) > 1E-3f) {
+            // Filter changed elsewhere
+            tracking = true;
+            roiWidth = params.getRoiWidth();
+            roiHeight = params.getRoiHeight();
+            mask = params.getRoiMask();
+            appliedX = orderX;
+            appliedY = orderY;
+            x = orderX;
+            y = orderY;
+            power = 0;
+            frames = 0;
+        }
+
+        if (frames++ % interval != 0) {
+            return false;
+        }
+
+        window.setBounds(Math.round(x) - SEARCH_RADIUS, Math.round(y) - SEARCH_RADIUS,
+                2 * SEARCH_RADIUS + 1, 2 * SEARCH_RADIUS + 1);
+        if (!OrderDetector.findPeak(spectrum, packed, width, height, window, 0, 0, peak, location)
+                || peak[2] < MIN_RELATIVE_POWER * power) {
+            return false;
+        }
+        if (power == 0) {
+            // First estimate
+            x = peak[0];
+            y = peak[1];
+            power = peak[2];
+        } else {
+            x += SMOOTHING * (peak[0] - x);
+            y += SMOOTHING * (peak[1] - y);
+            power += SMOOTHING * (peak[2] - power);
+        }
+
+        if (Math.abs(x - appliedX) <= HYSTERESIS && Math.abs(y - appliedY) <= HYSTERESIS) {
+            return false;
+        }
+
+        float newX = x;
+        float newY = y;
+        ReconstructionParameters recentered = settings.updateAndGet(
+                p -> recenter(p, newX, newY, width, height));
+        roiWidth = recentered.getRoiWidth();
+        roiHeight = recentered.getRoiHeight();
+        mask = recentered.getRoiMask();
+        appliedX = recentered.getRoiX() + roiWidth / 2 - recentered.getFxTuning();
+        appliedY = recentered.getRoiY() + roiHeight / 2 - recentered.getFyTuning();
+        minVersion = recentered.getVersion();
+        return true;
+    }
+
+    /**
+     * Moves the filter by whole pixels to the nearest position of the order
+     * inside of the spectrum, and compensates the rest of the offset
+     */
+    private static ReconstructionParameters recenter(ReconstructionParameters p,
+            float orderX, float orderY, int width, int height) {
+        Rectangle bounds = p.getRoi();
+        bounds.x += Math.round(orderX) - (bounds.x + bounds.width / 2);
+        bounds.y += Math.round(orderY) - (bounds.y + bounds.height / 2);
+        bounds.x = Math.max(0, Math.min(bounds.x, width - bounds.width));
+        bounds.y = Math.max(0, Math.min(bounds.y, height - bounds.height));
+        float[] residual = OrderDetector.carrierResidual(new float[]{orderX, orderY}, bounds);
+        return p.withFilter(bounds, p.getRoiMask())
+                .withTuning(p.getRefocusZ(), residual[0], residual[1], p.getLinTuning());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.util.Arrays;
+
+/**
+ * Complex field stored in a single flat array, row-major and interleaved: the
+ * pixel (x, y) has its real part at 2 * (y * width + x) and its imaginary part
+ * right after it. This is the order of the ImageJ pixel arrays and the one of
+ * the 1D-array entry points of FloatFFT_2D, built with (height, width).
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class ComplexField {
+
+    private final int width;
+    private final int height;
+    private final float[] data;
+
+    /**
+     * Creates a zero field
+     *
+     * @param width - Width [px]
+     * @param height - Height [px]
+     */
+    public ComplexField(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.data = new float[2 * width * height];
+    }
+
+    /**
+     * Sets every value to zero
+     */
+    public void clear() {
+        Arrays.fill(data, 0);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the interleaved values, 2 * width * height
+     *
+     * @return backing array
+     */
+    public float[] getData() {
+        return data;
+    }
+}
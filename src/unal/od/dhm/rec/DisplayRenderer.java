@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import unal.od.dhm.utils.ComplexKernels;
+import unal.od.dhm.utils.Parallel;
+
+/**
+ * Fused render kernel: takes a complex field to 8-bit display pixels. The
+ * first pass computes the displayed quantity, applies the optional log and
+ * tracks its range; the second one quantizes it into a reusable byte array.
+ * This replaces the extraction, FloatProcessor.log(), the min/max scan and
+ * convertToByteProcessor(), which needed four passes and three allocations.
+ * Both passes run in blocks of rows on the kernel threads; the block tasks
+ * and their partial ranges are kept by the renderer, so each frame buffer
+ * has its own renderer and rendering allocates nothing.
+ * <p>
+ * The quantities are computed row by row with the ComplexKernels, so the log
+ * and the phase use the FastMath approximations. Values without a logarithm
+ * (not positive) are left out of the range and displayed as 0.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class DisplayRenderer {
+
+    // Displayed quantities
+    public static final int AMPLITUDE = 0;
+    public static final int INTENSITY = 1;
+    public static final int PHASE = 2;
+    // Amplitude of an unshifted spectrum, displayed with the zero frequency
+    // at the center
+    public static final int SPECTRUM = 3;
+
+    // Arguments of the current render, read by the block tasks
+    private float[] data;
+    private int width;
+    private int height;
+    private int quantity;
+    private boolean log;
+    private float[] values;
+    private byte[] pixels;
+    private float low;
+    private float scale;
+
+    // Range of each block of rows, grown when there are more blocks
+    private float[] ranges = new float[2 * Parallel.getMaxThreads()];
+
+    // Block loops, built once so that rendering allocates nothing
+    private final Parallel.Loop rangeLoop = new Parallel.Loop(this::computeBlock);
+    private final Parallel.Loop quantizeLoop = new Parallel.Loop(this::quantizeBlock);
+
+    /**
+     * Renders a field. A renderer keeps the state of the render it runs, so
+     * it must not be shared between threads.
+     *
+     * @param field - Complex field
+     * @param quantity - One of AMPLITUDE, INTENSITY, PHASE or SPECTRUM
+     * @param log - Logarithmic scaling
+     * @param values - width * height buffer, receives the displayed values
+     * @param pixels - width * height buffer, receives the 8-bit pixels
+     * @param range - Receives the minimum and the maximum displayed values,
+     * pixel p stands for range[0] + p * (range[1] - range[0]) / 255
+     */
+    public void render(ComplexField field, int quantity, boolean log,
+            float[] values, byte[] pixels, float[] range) {
+
+        this.data = field.getData();
+        this.width = field.getWidth();
+        this.height = field.getHeight();
+        this.quantity = quantity;
+        this.log = log;
+        this.values = values;
+        this.pixels = pixels;
+
+        // Quantity, log and range of each block of rows
+        int blocks = Parallel.blockCount(height, width);
+        if (ranges.length < 2 * blocks) {
+            ranges = new float[2 * blocks];
+        }
+        rangeLoop.forBlocks(height, blocks);
+
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int b = 0; b < blocks; b++) {
+            min = Math.min(min, ranges[2 * b]);
+            max = Math.max(max, ranges[2 * b + 1]);
+        }
+        if (min > max) {
+            // Nothing to display
+            min = 0;
+            max = 0;
+        }
+        range[0] = min;
+        range[1] = max;
+
+        // Quantization, NaN goes to 0
+        this.low = min;
+        this.scale = (max > min) ? 255f / (max - min) : 0;
+        quantizeLoop.forRows(height, width);
+
+        // The buffers belong to the caller
+        this.data = null;
+        this.values = null;
+        this.pixels = null;
+    }
+
+    /**
+     * Computes the quantity of a block of rows and stores its range
+     */
+    private void computeBlock(int block, int start, int end) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int y = start; y < end; y++) {
+            int offset = y * width;
+            if (quantity == SPECTRUM) {
+                // The halves of the rows and of each row are swapped
+                int row = ((y + height / 2) % height) * width;
+                int half = width / 2;
+                compute(data, row + half, values, offset, width - half, AMPLITUDE, log);
+                compute(data, row, values, offset + width - half, half, AMPLITUDE, log);
+            } else {
+                compute(data, offset, values, offset, width, quantity, log);
+            }
+            for (int i = offset; i < offset + width; i++) {
+                float v = values[i];
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+            }
+        }
+        ranges[2 * block] = min;
+        ranges[2 * block + 1] = max;
+    }
+
+    /**
+     * Quantizes a block of rows into 8-bit pixels
+     */
+    private void quantizeBlock(int block, int start, int end) {
+        for (int i = start * width; i < end * width; i++) {
+            float v = values[i];
+            pixels[i] = (v == v) ? (byte) (int) ((v - low) * scale + 0.5f) : 0;
+        }
+    }
+
+    /**
+     * Computes a quantity of a range of complex values
+     */
+    private static void compute(float[] src, int srcOffset, float[] dst, int dstOffset,
+            int count, int quantity, boolean log) {
+        switch (quantity) {
+            case INTENSITY:
+                ComplexKernels.modulusSq(src, srcOffset, dst, dstOffset, count);
+                if (log) {
+                    ComplexKernels.log(dst, dstOffset, count, 1);
+                }
+                break;
+            case PHASE:
+                ComplexKernels.phase(src, srcOffset, dst, dstOffset, count);
+                if (log) {
+                    ComplexKernels.log(dst, dstOffset, count, 1);
+                }
+                break;
+            default:
+                if (log) {
+                    // log(sqrt(x)) = log(x) / 2
+                    ComplexKernels.modulusSq(src, srcOffset, dst, dstOffset, count);
+                    ComplexKernels.log(dst, dstOffset, count, 0.5f);
+                } else {
+                    ComplexKernels.modulus(src, srcOffset, dst, dstOffset, count);
+                }
+                break;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+/**
+ * Detects whether a frame needs to be reconstructed again. A frame is
+ * unchanged when both the checksum of its pixels and the version of the
+ * reconstruction settings match the ones of the last displayed frame, or of
+ * the one still being reconstructed. A frame is only remembered as done once
+ * it is displayed, so a frame whose reconstruction failed is tried again.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class FrameChangeDetector {
+
+    // Last displayed frame
+    private boolean valid = false;
+    private long lastChecksum;
+    private long lastSettings;
+    // Frame being reconstructed
+    private boolean pending = false;
+    private long pendingChecksum;
+    private long pendingSettings;
+
+    /**
+     * Checks the frame against the last displayed one and the one being
+     * reconstructed, and marks it as being reconstructed if it changed.
+     *
+     * @param checksum - Checksum of the pixels of the frame
+     * @param settings - Version of the reconstruction settings
+     * @return true if the frame must be reconstructed
+     */
+    public synchronized boolean hasChanged(long checksum, long settings) {
+        if (valid && checksum == lastChecksum && settings == lastSettings) {
+            return false;
+        }
+        if (pending && checksum == pendingChecksum && settings == pendingSettings) {
+            return false;
+        }
+
+        pendingChecksum = checksum;
+        pendingSettings = settings;
+        pending = true;
+        return true;
+    }
+
+    /**
+     * Remembers a frame as displayed
+     *
+     * @param checksum - Checksum of the pixels of the frame
+     * @param settings - Version of the reconstruction settings
+     */
+    public synchronized void displayed(long checksum, long settings) {
+        lastChecksum = checksum;
+        lastSettings = settings;
+        valid = true;
+        discarded(checksum, settings);
+    }
+
+    /**
+     * Forgets a frame that will not be displayed, so it is reconstructed
+     * again if it arrives once more
+     *
+     * @param checksum - Checksum of the pixels of the frame
+     * @param settings - Version of the reconstruction settings
+     */
+    public synchronized void discarded(long checksum, long settings) {
+        if (pending && checksum == pendingChecksum && settings == pendingSettings) {
+            pending = false;
+        }
+    }
+
+    /**
+     * Forgets the last frames, so the next one is always reconstructed
+     */
+    public synchronized void reset() {
+        valid = false;
+        pending = false;
+    }
+
+    /**
+     * Fast checksum of a pixel array. Four independent accumulators keep the
+     * loop from being bound by the multiply latency.
+     *
+     * @param pixels - byte[], short[], int[] or float[] pixels
+     * @return checksum
+     */
+    static long checksum(Object pixels) {
+        long h0 = 1, h1 = 3, h2 = 5, h3 = 7;
+        int n, i = 0;
+
+        if (pixels instanceof byte[]) {
+            byte[] p = (byte[]) pixels;
+            n = p.length;
+            for (; i + 3 < n; i += 4) {
+                h0 = 31 * h0 + p[i];
+                h1 = 31 * h1 + p[i + 1];
+                h2 = 31 * h2 + p[i + 2];
+                h3 = 31 * h3 + p[i + 3];
+            }
+            for (; i < n; i++) {
+                h0 = 31 * h0 + p[i];
+            }
+        } else if (pixels instanceof short[]) {
+            short[] p = (short[]) pixels;
+            n = p.length;
+            for (; i + 3 < n; i += 4) {
+                h0 = 31 * h0 + p[i];
+                h1 = 31 * h1 + p[i + 1];
+                h2 = 31 * h2 + p[i + 2];
+                h3 = 31 * h3 + p[i + 3];
+            }
+            for (; i < n; i++) {
+                h0 = 31 * h0 + p[i];
+            }
+        } else if (pixels instanceof float[]) {
+            float[] p = (float[]) pixels;
+            n = p.length;
+            for (; i + 3 < n; i += 4) {
+                h0 = 31 * h0 + Float.floatToRawIntBits(p[i]);
+                h1 = 31 * h1 + Float.floatToRawIntBits(p[i + 1]);
+                h2 = 31 * h2 + Float.floatToRawIntBits(p[i + 2]);
+                h3 = 31 * h3 + Float.floatToRawIntBits(p[i + 3]);
+            }
+            for (; i < n; i++) {
+                h0 = 31 * h0 + Float.floatToRawIntBits(p[i]);
+            }
+        } else if (pixels instanceof int[]) {
+            int[] p = (int[]) pixels;
+            n = p.length;
+            for (; i + 3 < n; i += 4) {
+                h0 = 31 * h0 + p[i];
+                h1 = 31 * h1 + p[i + 1];
+                h2 = 31 * h2 + p[i + 2];
+                h3 = 31 * h3 + p[i + 3];
+            }
+            for (; i < n; i++) {
+                h0 = 31 * h0 + p[i];
+            }
+        } else {
+            // Unknown storage, never report it as unchanged
+            return System.nanoTime();
+        }
+
+        return ((h0 * 31 + h1) * 31 + h2) * 31 + h3 + n;
+    }
+}
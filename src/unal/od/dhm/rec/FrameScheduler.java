@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+/**
+ * Latest-frame-wins scheduler for the visualization thread. The source
+ * notifies every new frame, and the visualization thread wakes up as soon as
+ * there is one pending. Frames delivered while the previous one is still
+ * waiting are coalesced, so only the newest frame is reconstructed.
+ * <p>
+ * Sources that write their pixels without notifying are still polled: if no
+ * frame is delivered within the poll interval the thread wakes up anyway. The
+ * interval grows while the polled frames are unchanged and goes back to its
+ * minimum as soon as something changes. In
+ * event-driven mode there is no polling at all: the thread only wakes up on
+ * delivered frames, after a short debounce that merges the bursts of updates
+ * some sources fire for a single camera frame. The debounce lasts one poll
+ * interval at most, so a steady stream of updates is still reconstructed.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class FrameScheduler {
+
+    // Poll interval: same cadence of the former fixed sleep, backing off while
+    // nothing changes
+    private static final long MIN_POLL_INTERVAL_MS = 10;
+    private static final long MAX_POLL_INTERVAL_MS = 160;
+    private long pollInterval = MIN_POLL_INTERVAL_MS;
+    // Quiet time required after the last update in event-driven mode, and
+    // the longest the debounce may last, one poll interval, so a source that
+    // never goes quiet does not starve the thread
+    private static final long DEBOUNCE_NANOS = 2000000L;
+    private static final long MAX_DEBOUNCE_NANOS = MIN_POLL_INTERVAL_MS * 1000000L;
+
+    private final Object lock = new Object();
+    private boolean pending = false;
+    private boolean woken = false;
+    private boolean eventDriven = false;
+
+    // Timing
+    private long lastDeliveryTime;
+    private long frameTime;
+
+    // Frame counts
+    private long delivered = 0;
+    private long processed = 0;
+    private long dropped = 0;
+
+    /**
+     * Notifies that the source has a new frame. If the previous one has not
+     * been taken yet, it is dropped in favour of this one.
+     */
+    public void frameDelivered() {
+        synchronized (lock) {
+            delivered++;
+            if (pending) {
+                dropped++;
+            }
+            pending = true;
+            lastDeliveryTime = System.nanoTime();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the next frame to process. Returns immediately if a frame is
+     * already pending (after the debounce in event-driven mode). Otherwise it
+     * waits for the poll interval, or indefinitely in event-driven mode.
+     *
+     * @return true if there is something to process, false if the wait was
+     * cut short by {@link #wakeUp()}
+     * @throws InterruptedException
+     */
+    public boolean awaitFrame() throws InterruptedException {
+        synchronized (lock) {
+            if (eventDriven) {
+                while (!pending && !woken && eventDriven) {
+                    lock.wait();
+                }
+                // Let a burst of updates settle, then take the newest frame
+                long deadline = System.nanoTime() + MAX_DEBOUNCE_NANOS;
+                long quiet;
+                while (!woken && (quiet = Math.min(lastDeliveryTime + DEBOUNCE_NANOS, deadline)
+                        - System.nanoTime()) > 0) {
+                    lock.wait(quiet / 1000000L, (int) (quiet % 1000000L));
+                }
+            } else if (!pending && !woken) {
+                lock.wait(pollInterval);
+            }
+            if (woken || (eventDriven && !pending)) {
+                woken = false;
+                return false;
+            }
+            frameTime = pending ? lastDeliveryTime : System.nanoTime();
+            pending = false;
+            return true;
+        }
+    }
+
+    /**
+     * Counts a frame taken from {@link #awaitFrame()} that was reconstructed
+     */
+    public void frameProcessed() {
+        synchronized (lock) {
+            processed++;
+            pollInterval = MIN_POLL_INTERVAL_MS;
+        }
+    }
+
+    /**
+     * Reports a frame taken from {@link #awaitFrame()} that was identical to
+     * the last one, so it was not reconstructed. Slows down the polling.
+     */
+    public void frameUnchanged() {
+        synchronized (lock) {
+            pollInterval = Math.min(2 * pollInterval, MAX_POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Counts a frame that was discarded after being taken, because a newer one
+     * made it stale
+     */
+    public void frameDropped() {
+        synchronized (lock) {
+            dropped++;
+        }
+    }
+
+    /**
+     * Enables or disables the event-driven mode
+     *
+     * @param eventDriven - true to wake only on delivered frames
+     */
+    public void setEventDriven(boolean eventDriven) {
+        synchronized (lock) {
+            this.eventDriven = eventDriven;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isEventDriven() {
+        synchronized (lock) {
+            return eventDriven;
+        }
+    }
+
+    /**
+     * Time stamp of the frame returned by the last {@link #awaitFrame()}: its
+     * delivery time, or the wake-up time for polled frames. Meant for the
+     * visualization thread.
+     *
+     * @return System.nanoTime() based time stamp
+     */
+    public long getFrameTime() {
+        synchronized (lock) {
+            return frameTime;
+        }
+    }
+
+    /**
+     * Releases a thread blocked in {@link #awaitFrame()}, e.g. when stopping
+     */
+    public void wakeUp() {
+        synchronized (lock) {
+            woken = true;
+            lock.notifyAll();
+        }
+    }
+
+    public long getDelivered() {
+        synchronized (lock) {
+            return delivered;
+        }
+    }
+
+    public long getProcessed() {
+        synchronized (lock) {
+            return processed;
+        }
+    }
+
+    public long getDropped() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+/**
+ * Contrast enhancement of 8-bit pixels in place, without going through the
+ * ImageJ command dispatcher. The equalization and the saturated stretch are
+ * the ones of ImageJ's "Enhance Contrast" (square root of the histogram
+ * counts, and a percentage of saturated pixels), and the histogram and the
+ * lookup table are preallocated, so enhancing a frame allocates nothing.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class HistogramEqualizer {
+
+    private static final int BINS = 256;
+
+    private final int[] histogram = new int[BINS];
+    private final int[] lut = new int[BINS];
+
+    /**
+     * Equalizes the histogram of the pixels
+     *
+     * @param pixels - 8-bit pixels
+     */
+    public void equalize(byte[] pixels) {
+        computeHistogram(pixels);
+
+        int max = BINS - 1;
+        double sum = weight(0);
+        for (int i = 1; i < max; i++) {
+            sum += 2 * weight(i);
+        }
+        sum += weight(max);
+        double scale = max / sum;
+
+        lut[0] = 0;
+        sum = weight(0);
+        for (int i = 1; i < max; i++) {
+            double delta = weight(i);
+            sum += delta;
+            lut[i] = (int) Math.round(sum * scale);
+            sum += delta;
+        }
+        lut[max] = max;
+
+        apply(pixels);
+    }
+
+    /**
+     * Stretches the pixels linearly so that a percentage of them saturates,
+     * half at each end of the histogram
+     *
+     * @param pixels - 8-bit pixels
+     * @param saturated - Saturated pixels [%]
+     */
+    public void stretch(byte[] pixels, double saturated) {
+        computeHistogram(pixels);
+
+        long threshold = (long) (pixels.length * saturated / 200);
+        int low = 0;
+        long count = histogram[0];
+        while (low < BINS - 1 && count <= threshold) {
+            count += histogram[++low];
+        }
+        int high = BINS - 1;
+        count = histogram[high];
+        while (high > 0 && count <= threshold) {
+            count += histogram[--high];
+        }
+        if (high <= low) {
+            return;
+        }
+
+        double scale = (BINS - 1.0) / (high - low);
+        for (int i = 0; i < BINS; i++) {
+            int v = (int) Math.round((i - low) * scale);
+            lut[i] = Math.max(0, Math.min(BINS - 1, v));
+        }
+
+        apply(pixels);
+    }
+
+    private void computeHistogram(byte[] pixels) {
+        for (int i = 0; i < BINS; i++) {
+            histogram[i] = 0;
+        }
+        for (byte p : pixels) {
+            histogram[p & 0xff]++;
+        }
+    }
+
+    private double weight(int bin) {
+        int h = histogram[bin];
+        return (h < 2) ? h : Math.sqrt(h);
+    }
+
+    private void apply(byte[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) lut[pixels[i] & 0xff];
+        }
+    }
+}
@@ -21,22 +21,26 @@ import ij.ImagePlus;
 import ij.gui.ImageWindow;
 import ij.measure.Calibration;
 import ij.plugin.filter.PlugInFilter;
-import ij.process.FloatProcessor;
-import ij.process.ImageConverter;
+import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 import java.awt.Button;
+import java.awt.EventQueue;
 import java.awt.Panel;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
 import javax.swing.JOptionPane;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import org.jtransforms.fft.FloatFFT_2D;
 import unal.od.dhm.PreferencesKeys;
-import unal.od.jdiffraction.cpu.FloatAngularSpectrum;
-import unal.od.jdiffraction.cpu.FloatPropagator;
-import unal.od.jdiffraction.cpu.utils.ArrayUtils;
+import unal.od.dhm.utils.ComplexKernels;
+import unal.od.dhm.utils.FFTPlanCache;
+import unal.od.dhm.utils.Parallel;
+import unal.od.dhm.utils.StageEvents;
 
 /**
  * Creates a superimposed visualization with the reconstruction in Amplitude,
@@ -55,59 +59,56 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
     private ImagePlus imp;
     private ImageProcessor ip;
     private ImagePlus impReco;
-    private ImageProcessor ipReco;
     private VisualizationThread visThread;
-    private ReconstructionWindow imgWindow;
+    private final FrameScheduler scheduler = new FrameScheduler();
+    private final FrameChangeDetector changeDetector = new FrameChangeDetector();
+    // Key of the frame being acquired, set and read by the calling thread
+    private long frameChecksum;
+    private long frameSettings;
+    private final AtomicReference<ReconstructionParameters> parameters = new AtomicReference<>();
+    private ReconstructionPipeline pipeline;
+    private volatile ReconstructionWindow imgWindow;
 
     // Visualization parameters
-    private int bitDepth;
     private int imgWidth;
     private int imgHeight;
-    private boolean logScale;
     private String imageTitle;
     private static final int RECO_FFT = 0;
     private static final int RECO_INTENSITY = 1;
     private static final int RECO_AMPLITUDE = 2;
     private static final int RECO_PHASE = 3;
-    private int recoType = RECO_FFT;
+    private static final String[] RECO_NAMES = {"FFT", "Intensity", "Amplitude", "Phase"};
 
-    // Imaging parameters
-    private float wavelength;
-    private float indx, indy;
-    
-    // Microscope parameters
-    private float moNA;
-    private float moMag;
-    private float tlFocal;
-    
-    // Tuning parameters
-    private float refocusZ = 0.0f;
-    private float fxTuning = 0.0f;
-    private float fyTuning = 0.0f;
-    private float linTuning = 0.0f;
-    private float compFxTune = 0.0f;
-    private float compFyTune = 0.0f;
-    
     // Field parameters
-    private float[][] field;
-    private float[][] field_fft;
-    private float[][] filteredField;
-    private float[][] outputField;
+    private final ReconstructionBuffers buffers = new ReconstructionBuffers();
+    private final PixelLoader loader = new PixelLoader();
+    private volatile long allocatedPerFrame = -1;
+    private final AtomicLong latencySum = new AtomicLong();
+    private final AtomicLong latencyCount = new AtomicLong();
+    private final AtomicLong computedFrames = new AtomicLong();
+    private final StageTimings timings = new StageTimings();
+    private final CarrierTracker tracker = new CarrierTracker();
 
     // Processing objects
-    private FloatFFT_2D fft;
-    private FloatPropagator propagator;
-    private boolean filtered;
-    private int roi_x;
-    private int roi_y;
-    private int roi_width;
-    private int roi_height;
-    private int[][] roi_mask;
+    private static final int PIPELINE_MIN_CORES = 4;
+    // The caches derived from the settings are rebuilt when the version of
+    // the frame settings differs from theirs
+    private AngularSpectrumPropagator propagator;
+    private int propagatorVersion = -1;
+    private final PropagatorCache propagatorCache = new PropagatorCache();
+    private volatile SpectralTransferFunction transfer;
+    private float[] compXPhasor;
+    private float[] compYPhasor;
+    private int compVersion = -1;
+    // Field being compensated, read by the block loop
+    private float[] compData;
+    private int compWidth;
+    private final Parallel.Loop compLoop = new Parallel.Loop(this::compensateBlock);
+    private boolean packedSpectrum;
 
     // Filter objects
     ImagePlus impFFT;
     ImageWindow filterWnd;
-    private final Calibration cali = new Calibration();
 
     /**
      * @param args the command line arguments
@@ -134,36 +135,33 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
         }
         
         // Image parameters
-        this.bitDepth = ip.getBitDepth();
         this.imgWidth = ip.getWidth();
         this.imgHeight = ip.getHeight();
         this.imageTitle = ip.getTitle();
         this.imp = ip;
+        this.packedSpectrum = isPowerOfTwo(imgWidth) && isPowerOfTwo(imgHeight);
 
         // Reconstruction parameters
         this.impReco = null;
-        this.ipReco = null;
-        this.filtered = false;
 
         // Window parameters
         this.visThread = null;
         this.imgWindow = null;
-        this.logScale = true;
         
         // User preferences
         Preferences pref = Preferences.userNodeForPackage(getClass());
         float lambdaUser = pref.getFloat(REC_LAMBDA, Float.NaN);
         float inputWUser = pref.getFloat(REC_INPUT_WIDTH, Float.NaN);
         float inputHUser = pref.getFloat(REC_INPUT_HEIGHT, Float.NaN);
-        moMag = pref.getFloat(REC_MO_MAGNIFICATION, Float.NaN);
-        wavelength = (float)(lambdaUser * 1E-6);
-        indx = (float)(inputWUser / imgWidth);
-        indy = (float)(inputHUser / imgHeight);
-        
-        // Set initial size calibration
-        cali.setUnit("um");
-        cali.pixelWidth = indx * 1E3 / moMag; // User size stored in mm
-        cali.pixelHeight = indy * 1E3 / moMag;
+        float moMag = pref.getFloat(REC_MO_MAGNIFICATION, Float.NaN);
+        float moNA = pref.getFloat(REC_MO_NA, Float.NaN);
+        // Wavelength stored in nm, user size in mm
+        float indx = (float)(inputWUser * 1E-3 / imgWidth);
+        float indy = (float)(inputHUser * 1E-3 / imgHeight);
+        parameters.set(new ReconstructionParameters(imgWidth, imgHeight)
+                .withImaging((float)(lambdaUser * 1E-9), indx, indy)
+                .withMicroscope(moMag, moNA, 0)
+                .withSpectrumSaturation(pref.getDouble(REC_SPECTRUM_SATURATED, 0)));
         
         // PluginFilter parameters
         int flags = DOES_ALL + NO_CHANGES;
@@ -199,178 +197,488 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
             return false;
         }
         
-    	// Elevate 16-bit images to 32-bit
-    	if(this.bitDepth == 16) {
-    		ImagePlus copyImp = this.imp;
-    		new ImageConverter(copyImp).convertToGray32();
-    		this.ip = copyImp.getProcessor();
-    	}
-    	
-        // Sets the input field creating a complex array with null imaginaries
-        this.field = ArrayUtils.complexAmplitude2(this.ip.getFloatArray(), null);
-
-        if (recoType != RECO_FFT) {
-            propagator = new FloatAngularSpectrum(imgWidth, imgHeight, wavelength, refocusZ, indx, indy);
-            getDisplayableFFT();
-            center();
-            outputField = new float[imgWidth][2 * imgHeight];
-            for (int i = 0; i < imgWidth; i++) {
-                System.arraycopy(filteredField[i], 0, outputField[i], 0, 2 * imgHeight);	
+        // Skip the frame if neither the pixels nor the settings changed
+        ReconstructionWindow window = this.imgWindow;
+        if (window != null && !window.isClosed()) {
+            frameChecksum = FrameChangeDetector.checksum(ip.getPixels());
+            frameSettings = ((long) parameters.get().getVersion() << 2) | window.getRecoType();
+            if (!changeDetector.hasChanged(frameChecksum, frameSettings)) {
+                scheduler.frameUnchanged();
+                return true;
+            }
+        } else {
+            changeDetector.reset();
+        }
+        scheduler.frameProcessed();
+
+        // Pipelined: the stages run on their own workers
+        ReconstructionPipeline activePipeline = this.pipeline;
+        if (activePipeline != null) {
+            activePipeline.acquire();
+            return true;
+        }
+
+        // Sequential: every stage runs in the calling thread
+        try {
+            for (int stage = 0; stage < ReconstructionPipeline.STAGES; stage++) {
+                runStage(stage, buffers);
+            }
+        } catch (RuntimeException ex) {
+            frameDiscarded(buffers);
+            throw ex;
+        }
+
+        return true;
+    }
+
+    /**
+     * Forgets a frame that will not be displayed, so the change detector
+     * lets it be reconstructed again
+     *
+     * @param frame - Buffers of the frame
+     */
+    void frameDiscarded(ReconstructionBuffers frame) {
+        changeDetector.discarded(frame.checksum, frame.settingsKey);
+    }
+
+    /**
+     * Runs one stage of the reconstruction over a frame
+     *
+     * @param stage - One of the ReconstructionPipeline.STAGE_* constants
+     * @param frame - Buffers of the frame
+     */
+    void runStage(int stage, ReconstructionBuffers frame) {
+        frame.stageStarted();
+        switch (stage) {
+            case ReconstructionPipeline.STAGE_ACQUIRE:
+                acquire(frame);
+                break;
+            case ReconstructionPipeline.STAGE_TRANSFORM:
+                transform(frame);
+                break;
+            case ReconstructionPipeline.STAGE_PROPAGATE:
+                propagate(frame);
+                break;
+            case ReconstructionPipeline.STAGE_RENDER:
+                render(frame);
+                break;
+            case ReconstructionPipeline.STAGE_DISPLAY:
+                display(frame);
+                break;
+            default:
+                break;
+        }
+        frame.stageFinished();
+
+        if (stage == ReconstructionPipeline.STAGE_DISPLAY) {
+            allocatedPerFrame = frame.takeAllocatedBytes();
+            changeDetector.displayed(frame.checksum, frame.settingsKey);
+        }
+    }
+
+    /**
+     * Acquisition stage: captures the settings of the frame and copies the
+     * input pixels into its field
+     */
+    private void acquire(ReconstructionBuffers frame) {
+        frame.checksum = frameChecksum;
+        frame.settingsKey = frameSettings;
+        frame.ensureSize(imgWidth, imgHeight);
+        ReconstructionWindow window = this.imgWindow;
+        frame.recoType = (window == null) ? RECO_FFT : window.getRecoType();
+        // Every stage of the frame reads these settings
+        frame.params = parameters.get();
+        frame.frameTime = scheduler.getFrameTime();
+
+        long start = System.nanoTime();
+        Object event = StageEvents.beginReconstruction();
+        if (frame.recoType == RECO_FFT) {
+            // Sets the input field creating a complex array with null imaginaries
+            loader.load(ip, frame.getField().getData(), true);
+        } else {
+            // The reconstructions only need the real hologram
+            loader.load(ip, packedSpectrum ? frame.getRealField() : frame.getField().getData(), false);
+        }
+        endStep(StageTimings.INGEST, start, event, frame);
+    }
+
+    /**
+     * Forward FFT and filtering stage. The spectrum view needs the complex
+     * transform, but the reconstructions use the real-to-complex one: the
+     * hologram is real, so half of its spectrum is enough.
+     */
+    private void transform(ReconstructionBuffers frame) {
+        FloatFFT_2D fft = FFTPlanCache.getFloat2D(imgHeight, imgWidth);
+        long start = System.nanoTime();
+        Object event = StageEvents.beginReconstruction();
+        if (frame.recoType == RECO_FFT) {
+            // Shifted when rendered
+            frame.ensureOutputSize(imgWidth, imgHeight);
+            fft.complexForward(frame.getField().getData());
+            endStep(StageTimings.FFT, start, event, frame);
+            return;
+        }
+
+        float[] spectrum;
+        if (packedSpectrum) {
+            // Half spectrum packed in a width * height array
+            spectrum = frame.getRealField();
+            fft.realForward(spectrum);
+        } else {
+            // JTransforms only packs power-of-two sizes, complete the spectrum
+            spectrum = frame.getField().getData();
+            fft.realForwardFull(spectrum);
+        }
+        long transformed = endStep(StageTimings.FFT, start, event, frame);
+        event = StageEvents.beginReconstruction();
+
+        // Follows the drift of the order, the next frames get the new filter
+        ReconstructionParameters params = frame.params;
+        tracker.update(spectrum, packedSpectrum, imgWidth, imgHeight, params, parameters);
+
+        // The composite transfer function also refocuses and compensates
+        frame.composite = params.isComposite() && params.isFiltered()
+                && imgWidth % 2 == 0 && imgHeight % 2 == 0;
+        if (frame.composite) {
+            // Also covers the propagation and the compensation
+            applyTransferFunction(spectrum, frame);
+        } else {
+            center(spectrum, packedSpectrum, frame);
+        }
+        endStep(StageTimings.FILTER, transformed, event, frame);
+    }
+
+    /**
+     * Filters, refocuses and compensates the field with the composite transfer
+     * function, which is rebuilt only when the settings change
+     *
+     * @param spectrum - Unshifted forward spectrum
+     * @param frame - Frame whose output field receives the reconstruction
+     */
+    private void applyTransferFunction(float[] spectrum, ReconstructionBuffers frame) {
+        ReconstructionParameters params = frame.params;
+        int version = params.getVersion();
+        int width = getOutputSize(params.getRoiWidth(), imgWidth, params);
+        int height = getOutputSize(params.getRoiHeight(), imgHeight, params);
+        frame.ensureOutputSize(width, height);
+
+        SpectralTransferFunction function = this.transfer;
+        if (function == null || !function.isValid(version, width, height, packedSpectrum)) {
+            function = new SpectralTransferFunction(version, imgWidth, imgHeight,
+                    packedSpectrum, params.getRoi(), params.getRoiMask(), width, height,
+                    params.getWavelength(), params.getRefocusZ(),
+                    params.getDx() * imgWidth / width, params.getDy() * imgHeight / height,
+                    Math.round(params.getFxTuning()), Math.round(params.getFyTuning()),
+                    params.getLinTuning());
+            this.transfer = function;
+        }
+        function.apply(spectrum, frame.outputField);
+
+        FloatFFT_2D fft = FFTPlanCache.getFloat2D(height, width);
+        fft.complexInverse(frame.outputField.getData(), true);
+    }
+
+    /**
+     * Size of the output field along one axis
+     *
+     * @param roiSize - Size of the filter
+     * @param size - Size of the input
+     * @param params - Settings of the frame
+     * @return output size
+     */
+    private int getOutputSize(int roiSize, int size, ReconstructionParameters params) {
+        if (!params.isReducedSize()) {
+            return size;
+        }
+        return Math.min(FFTPlanCache.nextFastSize(roiSize), size);
+    }
+
+    /**
+     * Propagation stage: refocusing and phase compensation
+     */
+    private void propagate(ReconstructionBuffers frame) {
+        if (frame.recoType == RECO_FFT) {
+            return;
+        }
+
+        // A reduced field covers the same area with a larger pixel pitch
+        ReconstructionParameters params = frame.params;
+        int width = frame.getOutputWidth();
+        int height = frame.getOutputHeight();
+        float wavelength = params.getWavelength();
+        float dx = params.getDx() * imgWidth / width;
+        float dy = params.getDy() * imgHeight / height;
+
+        if (frame.composite) {
+            // Only the fraction of the compensation that is not a whole
+            // spectral shift is left
+            float residualX = params.getFxTuning() - Math.round(params.getFxTuning());
+            float residualY = params.getFyTuning() - Math.round(params.getFyTuning());
+            if (frame.recoType == RECO_PHASE && (residualX != 0.0 || residualY != 0.0)) {
+                long start = System.nanoTime();
+                Object event = StageEvents.beginReconstruction();
+                compensatePhase(frame.outputField, params, dx, dy,
+                        (float) Math.asin(residualX * wavelength / (imgWidth * params.getDx())),
+                        (float) Math.asin(residualY * wavelength / (imgHeight * params.getDy())), 0);
+                endStep(StageTimings.COMPENSATE, start, event, frame);
             }
-            propagator.diffract(outputField);
+            return;
+        }
+
+        if (propagator == null || propagatorVersion != params.getVersion()
+                || width != propagator.getWidth() || height != propagator.getHeight()) {
+            propagatorVersion = params.getVersion();
+            propagator = propagatorCache.get(width, height, wavelength, params.getRefocusZ(), dx, dy);
         }
+        long start = System.nanoTime();
+        Object event = StageEvents.beginReconstruction();
+        propagator.diffract(frame.outputField.getData());
+        long propagated = endStep(StageTimings.PROPAGATE, start, event, frame);
 
-        switch (recoType) {
+        if (frame.recoType == RECO_PHASE && (params.getFxTuning() != 0.0
+                || params.getFyTuning() != 0.0 || params.getLinTuning() != 0.0)) {
+            event = StageEvents.beginReconstruction();
+            compensatePhase(frame.outputField, params, dx, dy,
+                    params.getCompFxTune(), params.getCompFyTune(), params.getLinTuning());
+            endStep(StageTimings.COMPENSATE, propagated, event, frame);
+        }
+    }
+
+    /**
+     * Render stage: computes the displayed quantity and its 8-bit image
+     */
+    private void render(ReconstructionBuffers frame) {
+        long start = System.nanoTime();
+        Object event = StageEvents.beginReconstruction();
+        switch (frame.recoType) {
             case RECO_FFT:
-                getDisplayableFFT();
-                showSpectrum();
-                impReco.setCalibration(null);
-                //showReco("FFT");
+                showSpectrum(frame);
                 break;
             case RECO_INTENSITY:
-                showIntensity();
-                impReco.setCalibration(cali);
+                showIntensity(frame);
                 break;
             case RECO_AMPLITUDE:
-                showAmplitude();
-                impReco.setCalibration(cali);
+                showAmplitude(frame);
                 break;
             case RECO_PHASE:
-                if(fxTuning != 0.0 || fyTuning != 0.0 || linTuning != 0.0)
-                    compensatePhase();
-                showPhase();
-                impReco.setCalibration(cali);
+                showPhase(frame);
                 break;
             default:
                 break;
         }
+        endStep(StageTimings.RENDER, start, event, frame);
+    }
 
-        if (this.imgWindow == null || this.imgWindow.isClosed()) {
-            this.imgWindow = new ReconstructionWindow(impReco, "Reco", this);
-        } else if (this.imgWindow != null) {
-            this.imgWindow.newImage(impReco);
+    /**
+     * Records the duration of a step and commits its flight recorder event
+     *
+     * @param step - One of the StageTimings steps
+     * @param start - Start time of the step [ns]
+     * @param event - Event from StageEvents.beginReconstruction(), may be null
+     * @param frame - Processed frame
+     * @return end time of the step [ns]
+     */
+    private long endStep(int step, long start, Object event, ReconstructionBuffers frame) {
+        long end = System.nanoTime();
+        timings.record(step, end - start);
+        if (event != null) {
+            // The input steps work on the hologram, the others on the output
+            boolean input = step == StageTimings.INGEST || step == StageTimings.FFT;
+            StageEvents.commitReconstruction(event, StageTimings.NAMES[step],
+                    input ? frame.getWidth() : frame.getOutputWidth(),
+                    input ? frame.getHeight() : frame.getOutputHeight(),
+                    RECO_NAMES[frame.recoType], frame.params.getRefocusZ() * 1E6);
         }
-        recoType = this.imgWindow.getRecoType();
+        return end;
+    }
 
-        return true;
+    /**
+     * Creates the calibration of a reconstructed frame from its settings. A
+     * reduced field has a larger pixel pitch. Each frame gets its own
+     * instance, so the display never shares one with the GUI.
+     */
+    private Calibration createCalibration(ReconstructionBuffers frame) {
+        ReconstructionParameters params = frame.params;
+        Calibration cal = new Calibration();
+        cal.setUnit("um");
+        cal.pixelWidth = params.getCalibrationWidth() * imgWidth / frame.getOutputWidth();
+        cal.pixelHeight = params.getCalibrationHeight() * imgHeight / frame.getOutputHeight();
+        return cal;
     }
 
     /**
-     * Creates ImagePLus and displays it
+     * Display stage: shows the rendered frame in the reconstruction window.
+     * The window copies the pixels into its own processor, so the frame can be
+     * recycled right away.
      */
-    private void showReco(String titlePrefix) {
-        if (logScale) { // Logaritmic representation
-            ipReco.log();
+    private void display(ReconstructionBuffers frame) {
+        long start = System.nanoTime();
+        Object event = StageEvents.beginReconstruction();
+        int width = frame.getOutputWidth();
+        int height = frame.getOutputHeight();
+
+        // Calibration, the spectrum has none
+        Calibration frameCali = null;
+        if (frame.recoType != RECO_FFT) {
+            double[] coeff = new double[2]; // y = m*x + b
+            coeff[0] = frame.range[0]; // b coefficient
+            coeff[1] = (frame.range[1] - frame.range[0]) / 255; // m coefficient
+            String unit = (frame.recoType == RECO_PHASE) ? "rad" : "adim";
+            frameCali = createCalibration(frame);
+            frameCali.setFunction(Calibration.STRAIGHT_LINE, coeff, unit);
         }
-        
-        // Calibration data
-        double minVal = ipReco.getMin();
-        double maxVal = ipReco.getMax();
-        double[] coeff = new double[2]; // y = m*x + b
-        coeff[0] = minVal; // b coefficient
-        coeff[1] = (maxVal - minVal)/255; // m coefficient
-        String unit = (recoType == RECO_PHASE) ? "rad" : "adim";
-        
-        String recoTitle = titlePrefix + " of " + imageTitle;
-        impReco = new ImagePlus(recoTitle, ipReco.convertToByteProcessor());
-        cali.setFunction(Calibration.STRAIGHT_LINE, coeff, unit); // Calibration
-        
-        if (recoType == RECO_FFT && !logScale) {
-            IJ.run(impReco, "Enhance Contrast...", "saturated=0 equalize");
+
+        if (this.imgWindow == null || this.imgWindow.isClosed()) {
+            impReco = new ImagePlus(frame.title,
+                    new ByteProcessor(width, height, frame.pixels.clone()));
+            impReco.setCalibration(frameCali);
+            this.imgWindow = new ReconstructionWindow(impReco, "Reco", this);
+        } else {
+            this.imgWindow.showFrame(frame.pixels, width, height, frame.title, frameCali);
         }
+
+        endStep(StageTimings.DISPLAY, start, event, frame);
+
+        // Latency from the frame delivery to its display
+        latencySum.addAndGet(System.nanoTime() - frame.frameTime);
+        latencyCount.incrementAndGet();
+        computedFrames.incrementAndGet();
     }
 
     /**
-     * Shows the FFT information and allows filtering
+     * Sets the title of the rendered frame and enhances the linear spectrum:
+     * stretched with the saturation of the settings, or equalized without it
      */
-    private void getDisplayableFFT() {
-        // Calculate FFT
-        // Clone the field to avoid thread collision
-        this.field_fft = new float[imgWidth][2 * imgHeight];
-        for (int i = 0; i < imgWidth; i++) {
-            System.arraycopy(field[i], 0, field_fft[i], 0, 2 * imgHeight);	
-        }
+    private void showReco(String titlePrefix, ReconstructionBuffers frame) {
+        // The calibration is set from the range when displayed
+        frame.title = titlePrefix + " of " + imageTitle;
         
-        fft = new FloatFFT_2D(imgWidth, imgHeight);
-        fft.complexForward(field_fft);
-        ArrayUtils.complexShift(field_fft);
+        if (frame.recoType == RECO_FFT && !frame.params.isLogScale()) {
+            double saturation = frame.params.getSpectrumSaturation();
+            if (saturation > 0) {
+                frame.equalizer.stretch(frame.pixels, saturation);
+            } else {
+                frame.equalizer.equalize(frame.pixels);
+            }
+        }
     }
-    
+
     /**
-     * Adds a linear phase compensation to the reconstructed information
+     * Adds a linear phase compensation to the reconstructed information. The
+     * compensation phasor is separable, exp(i(ax + by + c)), so it is cached
+     * as one factor per column and one per row that are only rebuilt when the
+     * settings or the field size change, and applied with an in-place fused
+     * multiplication.
+     *
+     * @param outputField - Field to compensate
+     * @param dx - Pixel pitch along x
+     * @param dy - Pixel pitch along y
+     * @param fxTune - Compensation angle along x
+     * @param fyTune - Compensation angle along y
+     * @param offset - Constant phase
      */
-    private void compensatePhase() {
-        // Create amplitude
-        float[][] uniformAmplitude = new float[imgWidth][imgHeight];
-        for (int i = 0; i < imgWidth; i++) {
-            for (int j = 0; j < imgHeight; j++) {
-                uniformAmplitude[i][j] = 1;
+    void compensatePhase(ComplexField outputField, ReconstructionParameters params,
+            float dx, float dy, float fxTune, float fyTune, float offset) {
+        int width = outputField.getWidth();
+        int height = outputField.getHeight();
+        int version = params.getVersion();
+        if (compXPhasor == null || compVersion != version
+                || compXPhasor.length != 2 * width || compYPhasor.length != 2 * height) {
+            double k = 2 * Math.PI / params.getWavelength();
+            double ax = k * Math.sin(fxTune) * dx;
+            double ay = k * Math.sin(fyTune) * dy;
+
+            compXPhasor = new float[2 * width];
+            for (int x = 0; x < width; x++) {
+                double phase = ax * (x - width / 2);
+                compXPhasor[2 * x] = (float) Math.cos(phase);
+                compXPhasor[2 * x + 1] = (float) Math.sin(phase);
             }
-        }
-        
-        float k = (float) (2 * Math.PI / wavelength);
-        
-        float[][] compenPhase = new float[imgWidth][imgHeight];
-        for (int i = 0; i < imgWidth; i++) {
-            int i2 = i - (imgWidth / 2);
-            for (int j = 0; j < imgHeight; j++) {
-                int j2 = j - (imgHeight / 2);
-                compenPhase[i][j] = (float) (k * ( Math.sin(compFxTune) * i2 * indx 
-                        + Math.sin(compFyTune) * j2 * indy ));
-                compenPhase[i][j] += linTuning; 
+            // The constant phase goes in the row factor
+            compYPhasor = new float[2 * height];
+            for (int y = 0; y < height; y++) {
+                double phase = ay * (y - height / 2) + offset;
+                compYPhasor[2 * y] = (float) Math.cos(phase);
+                compYPhasor[2 * y + 1] = (float) Math.sin(phase);
             }
+            compVersion = version;
+        }
+
+        compData = outputField.getData();
+        compWidth = width;
+        try {
+            compLoop.forRows(height, width);
+        } finally {
+            compData = null;
+        }
+    }
+
+    private void compensateBlock(int block, int start, int end) {
+        for (int y = start; y < end; y++) {
+            // Phasor of the pixel: row factor times column factor
+            ComplexKernels.multiplyScaled(compData, y * compWidth, compXPhasor,
+                    compYPhasor[2 * y], compYPhasor[2 * y + 1], compWidth);
         }
-        
-        float[][] compenField = ArrayUtils.complexAmplitude(compenPhase, uniformAmplitude);
-        ArrayUtils.complexMultiplication2(outputField,compenField);
     }
     
     /**
      * Shows the FFT spectrum
      */
-    private void showSpectrum() {
+    private void showSpectrum(ReconstructionBuffers frame) {
         // Calculate the power spectrum from FFT
-        float[][] modulus = ArrayUtils.modulus(field_fft);
-        // Create Image with resulting information
-        ipReco = new FloatProcessor(modulus);
+        render(frame.getField(), DisplayRenderer.SPECTRUM, frame);
         // Display the result
-        showReco("FFT");
+        showReco("FFT", frame);
     }
     
     /**
      * Shows the Intensity reconstruction
      */
-    private void showIntensity() {
+    private void showIntensity(ReconstructionBuffers frame) {
         // Calculate intensity
-        ipReco = new FloatProcessor(ArrayUtils.modulusSq(outputField));
+        render(frame.outputField, DisplayRenderer.INTENSITY, frame);
         // Display the result
-        showReco("Intensity");
+        showReco("Intensity", frame);
     }
 
     /**
      * Shows the Amplitude reconstruction
      */
-    private void showAmplitude() {
+    private void showAmplitude(ReconstructionBuffers frame) {
         // Calculate the amplitude
-        ipReco = new FloatProcessor(ArrayUtils.modulus(outputField));
+        render(frame.outputField, DisplayRenderer.AMPLITUDE, frame);
         // Display the result
-        showReco("Amplitude");
+        showReco("Amplitude", frame);
     }
 
     /**
      * Shows the Phase reconstruction
      */
-    private void showPhase() {
+    private void showPhase(ReconstructionBuffers frame) {
         // Calculate the phase
-        ipReco = new FloatProcessor(ArrayUtils.phase(outputField));
+        render(frame.outputField, DisplayRenderer.PHASE, frame);
         // Display the result
-        showReco("Phase");
+        showReco("Phase", frame);
+    }
+
+    /**
+     * Renders a quantity of a field into the 8-bit pixels of a frame
+     */
+    private void render(ComplexField field, int quantity, ReconstructionBuffers frame) {
+        frame.renderer.render(field, quantity, frame.params.isLogScale(), frame.display,
+                frame.pixels, frame.range);
     }
 
     /**
      * Starts the visualization thread
      */
-    public void startLive() {
+    public synchronized void startLive() {
+        loadParallelism();
+        if (this.pipeline == null
+                && Runtime.getRuntime().availableProcessors() >= PIPELINE_MIN_CORES) {
+            this.pipeline = new ReconstructionPipeline(this);
+            this.pipeline.start();
+        }
         if (this.visThread == null) {
             this.visThread = new VisualizationThread(this);
         }
@@ -380,7 +688,7 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
     /**
      * Stops the visualization thread nicely
      */
-    public void stopLive() {
+    public synchronized void stopLive() {
         this.visThread.stopDisplay();
         try {
             this.visThread.join();
@@ -388,6 +696,22 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
             System.out.println("Couldn't stop live display: " + ex.getMessage());
         }
         this.visThread = null;
+
+        if (this.pipeline != null) {
+            this.pipeline.stop();
+            this.pipeline = null;
+        }
+        // The frames left in the pipeline are never displayed
+        changeDetector.reset();
+    }
+
+    /**
+     * Gets the scheduler that wakes the visualization thread
+     *
+     * @return frame scheduler
+     */
+    public FrameScheduler getScheduler() {
+        return this.scheduler;
     }
 
     /**
@@ -399,6 +723,224 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
         return this.imp.getID();
     }
 
+    /**
+     * Gets the width of the source frames, which the reduced reconstructions
+     * do not change
+     *
+     * @return hologram width [px]
+     */
+    public int getImageWidth() {
+        return imgWidth;
+    }
+
+    /**
+     * Gets the height of the source frames
+     *
+     * @return hologram height [px]
+     */
+    public int getImageHeight() {
+        return imgHeight;
+    }
+
+    /**
+     * Number of frames that went through all the stages, whether the window
+     * drew them or not
+     *
+     * @return computed frames
+     */
+    public long getComputedFrames() {
+        return computedFrames.get();
+    }
+
+    /**
+     * Gets the rolling timings of the reconstruction steps
+     *
+     * @return step timings
+     */
+    public StageTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Bytes allocated by all the stages during the last frame
+     *
+     * @return allocated bytes, or -1 if unavailable
+     */
+    public long getAllocatedBytesPerFrame() {
+        return allocatedPerFrame;
+    }
+
+    /**
+     * Describes the current state of the reconstruction engine
+     *
+     * @return status text
+     */
+    public String getStatus() {
+        String alloc = (allocatedPerFrame < 0) ? "n/a"
+                : String.format(Locale.US, "%.1f kB", allocatedPerFrame / 1024.0);
+        long count = latencyCount.getAndSet(0);
+        long sum = latencySum.getAndSet(0);
+        String latency = (count == 0) ? "n/a"
+                : String.format(Locale.US, "%.1f ms", sum * 1E-6 / count);
+        String mode = scheduler.isEventDriven() ? "Events" : "Polling";
+
+        ReconstructionPipeline activePipeline = this.pipeline;
+        String engine = (activePipeline == null) ? "Sequential" : activePipeline.getStatus();
+        String threads = "Threads: " + Parallel.getFFTThreads() + " FFT / "
+                + Parallel.getKernelThreads() + " kernels";
+        return mode + " | " + engine + " | " + threads + " | Latency: " + latency
+                + " | Alloc/frame: " + alloc;
+    }
+
+    /**
+     * Sets the thread counts stored in the preferences. In automatic mode they
+     * are tuned the first time a frame size is reconstructed.
+     */
+    private void loadParallelism() {
+        Preferences pref = Preferences.userNodeForPackage(getClass());
+        String size = imgWidth + "x" + imgHeight;
+        if (pref.getBoolean(REC_THREADS_AUTO, true)
+                && !size.equals(pref.get(REC_THREADS_TUNED_SIZE, ""))) {
+            autotuneParallelism();
+            return;
+        }
+        int max = Parallel.getMaxThreads();
+        // The preferences may come from another machine
+        Parallel.setFFTThreads(Math.min(pref.getInt(REC_FFT_THREADS, max), max));
+        Parallel.setKernelThreads(Math.min(pref.getInt(REC_KERNEL_THREADS, max), max));
+    }
+
+    /**
+     * Times the FFTs and the kernels of the frame size with different thread
+     * counts, uses the fastest ones and stores them in the preferences. The
+     * timings run on the buffers of the sequential reconstruction, so no
+     * frame can be reconstructed meanwhile.
+     */
+    private void autotuneParallelism() {
+        String size = imgWidth + "x" + imgHeight;
+        IJ.showStatus("Tuning the threads for " + size + " frames...");
+        buffers.ensureSize(imgWidth, imgHeight);
+        buffers.ensureOutputSize(imgWidth, imgHeight);
+        int[] threads = Parallel.autotune(buffers.getField().getData(),
+                buffers.outputField.getData(), imgWidth, imgHeight);
+        Parallel.setFFTThreads(threads[0]);
+        Parallel.setKernelThreads(threads[1]);
+
+        Preferences pref = Preferences.userNodeForPackage(getClass());
+        pref.putBoolean(REC_THREADS_AUTO, true);
+        pref.putInt(REC_FFT_THREADS, threads[0]);
+        pref.putInt(REC_KERNEL_THREADS, threads[1]);
+        pref.put(REC_THREADS_TUNED_SIZE, size);
+        IJ.showStatus("Threads: " + threads[0] + " FFT / " + threads[1] + " kernels");
+    }
+
+    /**
+     * Tunes the thread counts again. The live reconstruction is paused
+     * meanwhile, so its frames neither disturb the timings nor run while the
+     * thread counts change.
+     */
+    synchronized void retuneParallelism() {
+        boolean running = this.visThread != null;
+        if (running) {
+            stopLive();
+        }
+        try {
+            autotuneParallelism();
+        } finally {
+            if (running) {
+                startLive();
+            }
+        }
+    }
+
+    /**
+     * Uses a fixed thread count for the kernels, and the largest power of two
+     * below it for the FFTs, and stores them in the preferences
+     *
+     * @param threads - Thread count
+     */
+    void setParallelism(int threads) {
+        Parallel.setFFTThreads(threads);
+        Parallel.setKernelThreads(threads);
+
+        Preferences pref = Preferences.userNodeForPackage(getClass());
+        pref.putBoolean(REC_THREADS_AUTO, false);
+        // The FFTs run with a power of two
+        pref.putInt(REC_FFT_THREADS, Parallel.getFFTThreads());
+        pref.putInt(REC_KERNEL_THREADS, threads);
+    }
+
+    /**
+     * Whether the thread counts are tuned automatically
+     *
+     * @return automatic mode
+     */
+    boolean isAutoParallelism() {
+        return Preferences.userNodeForPackage(getClass()).getBoolean(REC_THREADS_AUTO, true);
+    }
+
+    /**
+     * Sets the event-driven mode: frames are reconstructed only when the
+     * source image notifies an update, instead of being polled
+     *
+     * @param eventDriven
+     */
+    void setEventDriven(boolean eventDriven) {
+        scheduler.setEventDriven(eventDriven);
+    }
+
+    /**
+     * Sets the reduced-size reconstruction: the filtered order is inverse
+     * transformed and propagated in an array sized to the filter instead of
+     * the whole frame
+     *
+     * @param reduced
+     */
+    void setReducedSize(boolean reduced) {
+        parameters.updateAndGet(p -> p.withReducedSize(reduced));
+    }
+
+    public boolean isReducedSize() {
+        return parameters.get().isReducedSize();
+    }
+
+    /**
+     * Sets the tracking of the +1 order: the filter and the carrier
+     * compensation follow its drift across frames
+     *
+     * @param track
+     */
+    void setTracking(boolean track) {
+        tracker.setEnabled(track);
+    }
+
+    public boolean isTracking() {
+        return tracker.isEnabled();
+    }
+
+    /**
+     * Gets the tracker of the +1 order, to set its interval
+     *
+     * @return tracker
+     */
+    public CarrierTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Sets the composite mode: filtering, refocusing and compensation are
+     * applied as a single precomputed transfer function
+     *
+     * @param composite
+     */
+    void setComposite(boolean composite) {
+        parameters.updateAndGet(p -> p.withComposite(composite));
+    }
+
+    public boolean isComposite() {
+        return parameters.get().isComposite();
+    }
+
     /**
      * Gets the visualization window
      *
@@ -408,13 +950,67 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
         return this.imgWindow;
     }
 
+    /**
+     * Uses the current source frame as the dark frame, or removes it
+     *
+     * @param set - true to capture, false to remove
+     */
+    void setDarkFrame(boolean set) {
+        loader.setDarkFrame(set ? ip : null);
+        parameters.updateAndGet(ReconstructionParameters::next);
+    }
+
+    /**
+     * Uses the current source frame as the flat field, or removes it
+     *
+     * @param set - true to capture, false to remove
+     */
+    void setFlatField(boolean set) {
+        loader.setFlatField(set ? ip : null);
+        parameters.updateAndGet(ReconstructionParameters::next);
+    }
+
+    /**
+     * Gets the loader of the source pixels
+     *
+     * @return pixel loader
+     */
+    public PixelLoader getPixelLoader() {
+        return this.loader;
+    }
+
     /**
      * Sets the logarithmic scaling
      *
      * @param log
      */
     void setLogScale(boolean log) {
-        this.logScale = log;
+        parameters.updateAndGet(p -> p.withLogScale(log));
+    }
+
+    /**
+     * Sets the enhancement of the linear spectrum view, and stores it in the
+     * preferences
+     *
+     * @param saturation - Saturated pixels [%], 0 to equalize instead
+     */
+    void setSpectrumSaturation(double saturation) {
+        parameters.updateAndGet(p -> p.withSpectrumSaturation(saturation));
+        Preferences.userNodeForPackage(getClass()).putDouble(REC_SPECTRUM_SATURATED, saturation);
+    }
+
+    public double getSpectrumSaturation() {
+        return parameters.get().getSpectrumSaturation();
+    }
+
+    /**
+     * Gets the current settings. They never change: new settings are
+     * published as a new snapshot.
+     *
+     * @return settings snapshot
+     */
+    ReconstructionParameters getParameters() {
+        return parameters.get();
     }
 
     /**
@@ -423,23 +1019,22 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
     public void createFilterWindow() {
         System.out.println("Setting new filter");
 
-        float[][] field_filter_fft = new float[imgWidth][2 * imgHeight];
-        for (int i = 0; i < imgWidth; i++) {
-            System.arraycopy(field[i], 0, field_filter_fft[i], 0, 2 * imgHeight);	
-        }
+        // Read its own copy of the input to avoid thread collision
+        ComplexField fieldFilter = new ComplexField(imgWidth, imgHeight);
+        loader.load(ip, fieldFilter.getData(), true);
         
         // Calculate FFT        
-        FloatFFT_2D fftWindow = new FloatFFT_2D(imgWidth, imgHeight);
-        fftWindow.complexForward(field_filter_fft);
-        ArrayUtils.complexShift(field_filter_fft);
-        float[][] modulus = ArrayUtils.modulus(field_filter_fft);
+        FloatFFT_2D fft = FFTPlanCache.getFloat2D(imgHeight, imgWidth);
+        fft.complexForward(fieldFilter.getData());
+        byte[] pixels = new byte[imgWidth * imgHeight];
+        new DisplayRenderer().render(fieldFilter, DisplayRenderer.SPECTRUM, true,
+                new float[imgWidth * imgHeight], pixels, new float[2]);
 
         // Create Image with resulting information
-        ImageProcessor ipFFT = new FloatProcessor(modulus);
-        ipFFT.log();
+        ImageProcessor ipFFT = new ByteProcessor(imgWidth, imgHeight, pixels);
         
         if (filterWnd == null || !filterWnd.isVisible()) {
-            impFFT = new ImagePlus("Filter FFT", ipFFT.convertToByteProcessor());
+            impFFT = new ImagePlus("Filter FFT", ipFFT);
             filterWnd = new ImageWindow(impFFT);
             Panel panel = new Panel();
             Button doneBtn = new Button("Done!");
@@ -450,7 +1045,7 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
             filterWnd.add(panel);
             filterWnd.pack();
         } else {
-            impFFT.setProcessor("Filter FFT", ipFFT.convertToByteProcessor());
+            impFFT.setProcessor("Filter FFT", ipFFT);
             filterWnd.updateImage(impFFT);
             filterWnd.setVisible(true);
             filterWnd.toFront();
@@ -458,36 +1053,25 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
 
     }
     
-    protected void setImagingParameters(float lambda, float dx, float dy) {
-        this.wavelength = (float) (lambda * 1E-6);
-        this.indx = (float) (dx * 1E-6);
-        this.indy = (float) (dy * 1E-6);
-        
-        cali.setUnit("um");
-        cali.pixelWidth = dx;
-        cali.pixelHeight = dy;
-    }
-    protected void setMicroscopeParameters(float magnification, float NA, float tubeLens) {
-        this.moMag = magnification;
-        this.moNA = NA;
-        this.tlFocal = (float) (tubeLens * 1E-6);
-        
-        cali.pixelWidth = cali.pixelWidth / magnification;
-        cali.pixelHeight = cali.pixelHeight / magnification;
+    /**
+     * Sets the imaging and the microscope parameters in a single snapshot
+     *
+     * @param lambda - Wavelength [um]
+     * @param dx - Pixel pitch along x [um]
+     * @param dy - Pixel pitch along y [um]
+     * @param magnification - Magnification of the objective
+     * @param NA - Numerical aperture of the objective
+     * @param tubeLens - Focal length of the tube lens [um]
+     */
+    protected void setImagingParameters(float lambda, float dx, float dy,
+            float magnification, float NA, float tubeLens) {
+        parameters.updateAndGet(p -> p.withImaging((float) (lambda * 1E-6),
+                (float) (dx * 1E-6), (float) (dy * 1E-6))
+                .withMicroscope(magnification, NA, (float) (tubeLens * 1E-6)));
     }
     protected void setTuningParameters(float zTune, float fxTune, float fyTune, float linTune) {
-        this.refocusZ = (float) (zTune * 1E-6);       
-        
-        this.fxTuning = fxTune;
-        this.fyTuning = fyTune;
-        this.linTuning = linTune;
-        
-        reloadTuning();
-    }
-    
-    private void reloadTuning() {
-        this.compFxTune = (float) Math.asin(fxTuning * wavelength / (imgWidth * indx));
-        this.compFyTune = (float) Math.asin(fyTuning * wavelength / (imgHeight * indy));
+        parameters.updateAndGet(p -> p.withTuning((float) (zTune * 1E-6),
+                fxTune, fyTune, linTune));
     }
 
     /**
@@ -499,82 +1083,101 @@ public class LiveReconstruction_ implements PlugInFilter, PreferencesKeys {
         Rectangle roi = ipROI.getRoi();
         ImageProcessor ipMask = impFFT.getMask();
 
-        // Update the information
-        this.roi_x = roi.x;
-        this.roi_y = roi.y;
-        this.roi_width = roi.width;
-        this.roi_height = roi.height;
-        this.roi_mask = (ipMask != null) ? ipMask.getIntArray() : null;
-
-        // Enables the filtered flag
-        this.filtered = true;
+        setFilter(roi, (ipMask != null) ? ipMask.getIntArray() : null);
         // Enables propagation options
         this.imgWindow.enableRecoTypes();
     }
 
     /**
-     * Filters the field and centers its information
+     * Finds the +1 order in the spectrum of the current input and sets an
+     * elliptical filter around it, sized by the objective (see
+     * OrderDetector). The carrier compensation takes the sub-pixel position
+     * of the order to the zero frequency. It needs no window, so it can be
+     * run unattended. It runs a full-frame FFT, so call it away from the EDT.
+     *
+     * @return whether an order was found
      */
-    private void center() {
-        if (!filtered) {
-            System.out.println("No filter selected");
-            return;
+    public boolean setAutomaticFilter() {
+        if (this.ip == null) {
+            return false;
         }
 
-        // If a regular ROI was selected...
-        if (this.roi_mask == null) {
-            //System.out.println("Null mask");
-            filteredField = new float[imgWidth][2 * imgHeight];
+        // Read its own copy of the input to avoid thread collision
+        FloatFFT_2D fft = FFTPlanCache.getFloat2D(imgHeight, imgWidth);
+        float[] spectrum;
+        if (packedSpectrum) {
+            spectrum = new float[imgWidth * imgHeight];
+            loader.load(ip, spectrum, false);
+            fft.realForward(spectrum);
+        } else {
+            spectrum = new float[2 * imgWidth * imgHeight];
+            loader.load(ip, spectrum, true);
+            fft.complexForward(spectrum);
+        }
 
-            for (int i = 0; i < imgWidth; i++) {
-                for (int j = 0; j < imgHeight; j++) {
-                    filteredField[i][2 * j] = 0;
-                    filteredField[i][2 * j + 1] = 0;
-                }
-            }
+        float[] order = OrderDetector.findOrder(spectrum, packedSpectrum, imgWidth, imgHeight,
+                parameters.get());
+        if (order == null) {
+            IJ.showStatus("No +1 order found");
+            return false;
+        }
+        Rectangle roi = OrderDetector.filterBounds(order, imgWidth, imgHeight);
+        int[][] mask = OrderDetector.filterMask(order, roi);
+        float[] residual = OrderDetector.carrierResidual(order, roi);
+        IJ.showStatus(String.format(Locale.US, "+1 order at (%.2f, %.2f) px, radius %.1f px",
+                order[0], order[1], Math.max(order[2], order[3])));
 
-            int a = (imgWidth - roi_width - (2 * roi_x)) / 2;
-            int b = (imgHeight - roi_height - (2 * roi_y)) / 2;
-            for (int i = roi_x; i < roi_x + roi_width - 1; i++) {
-                for (int j = roi_y; j < roi_y + roi_height - 1; j++) {
-                    filteredField[i + a][2 * (j + b)] = field_fft[i][2 * j];
-                    filteredField[i + a][2 * (j + b) + 1] = field_fft[i][2 * j + 1];
-                }
-            }
+        parameters.updateAndGet(p -> p.withFilter(roi, mask)
+                .withTuning(p.getRefocusZ(), residual[0], residual[1], p.getLinTuning()));
+        ReconstructionWindow window = this.imgWindow;
+        if (window != null) {
+            EventQueue.invokeLater(window::enableRecoTypes);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the filter of the +1 order
+     *
+     * @param roi - Bounds of the filter in the shifted spectrum
+     * @param mask - [x][y] mask of the bounds, null for the whole rectangle
+     */
+    void setFilter(Rectangle roi, int[][] mask) {
+        parameters.updateAndGet(p -> p.withFilter(roi, mask));
+    }
 
-            ArrayUtils.complexShift(filteredField);
-            fft.complexInverse(filteredField, true);
+    /**
+     * Filters the field and centers its information. In reduced-size mode the
+     * output only has the size of the filter, rounded up to an FFT-friendly
+     * one.
+     *
+     * @param spectrum - Unshifted spectrum, complete or packed
+     * @param packed - Whether the spectrum is the packed output of realForward
+     * @param frame - Frame whose output field receives the filtered field
+     */
+    void center(float[] spectrum, boolean packed, ReconstructionBuffers frame) {
+        ReconstructionParameters params = frame.params;
+        if (!params.isFiltered()) {
+            frame.ensureOutputSize(imgWidth, imgHeight);
+            System.out.println("No filter selected");
             return;
         }
 
-        // Create complex matrix filled with zeros
-        filteredField = new float[imgWidth][2 * imgHeight];
-        for (int i = 0; i < imgWidth; i++) {
-            for (int j = 0; j < imgHeight; j++) {
-                filteredField[i][2 * j] = 0;
-                filteredField[i][2 * j + 1] = 0;
-            }
-        }
+        // Output size
+        int width = getOutputSize(params.getRoiWidth(), imgWidth, params);
+        int height = getOutputSize(params.getRoiHeight(), imgHeight, params);
+        frame.ensureOutputSize(width, height);
 
-        // New size and index
-        int a = (imgWidth - roi_width - 2 * roi_x) / 2;
-        int b = (imgHeight - roi_height - 2 * roi_y) / 2;
-        int i2 = 0;
+        // Clear the complex matrix and copy the filter to its center
+        frame.outputField.clear();
+        frame.centerer.copy(spectrum, packed, imgWidth, imgHeight, params, frame.outputField);
 
-        for (int i = roi_x; i < (roi_x + roi_width); i++) {
-            int j2 = 0;
-            for (int j = roi_y; j < (roi_y + roi_height); j++) {
-                if (roi_mask[i2][j2] != 0) {
-                    filteredField[i + a][2 * (j + b)] = field_fft[i][2 * j];
-                    filteredField[i + a][2 * (j + b) + 1] = field_fft[i][(2 * j) + 1];
-                }
-                j2++;
-            }
-            i2++;
-        }
+        FloatFFT_2D fft = FFTPlanCache.getFloat2D(height, width);
+        fft.complexInverse(frame.outputField.getData(), true);
+    }
 
-        ArrayUtils.complexShift(filteredField);        
-        fft.complexInverse(filteredField, true);
+    private static boolean isPowerOfTwo(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
     }
 
 }
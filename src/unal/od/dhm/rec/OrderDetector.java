@@ -0,0 +1,295 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.awt.Rectangle;
+
+/**
+ * Locates the +1 diffraction order of an off-axis hologram in its spectrum
+ * and builds the filter around it. The order is the highest peak outside of
+ * the zero order, refined to sub-pixel accuracy with a Gaussian fit of the
+ * peak and its neighbours. Its radius is the cutoff of the objective, NA / (M
+ * lambda), or a third of its distance to the zero order when the objective is
+ * unknown, the largest one that keeps it apart from the zero order.
+ * <p>
+ * The positions are in the shifted spectrum, with the zero frequency at
+ * (width / 2, height / 2), as the filters of the plugin. The spectrum can be
+ * complete or packed, as in LiveReconstruction_.center().
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class OrderDetector {
+
+    // Radius of the excluded zero order when the objective is unknown,
+    // fraction of the size of the spectrum
+    private static final float DC_FRACTION = 0.05f;
+
+    private OrderDetector() {
+    }
+
+    /**
+     * Finds the +1 order. The hologram is real, so its spectrum has two
+     * conjugate orders of the same height; the one in the upper half of the
+     * shifted spectrum is taken.
+     *
+     * @param spectrum - Unshifted spectrum, complete or packed
+     * @param packed - Whether the spectrum is the packed output of realForward
+     * @param width - Width of the spectrum [px]
+     * @param height - Height of the spectrum [px]
+     * @param params - Settings with the objective and the imaging parameters
+     * @return {x, y, radius along x, radius along y} [px], null if there is no
+     * order
+     */
+    public static float[] findOrder(float[] spectrum, boolean packed, int width, int height,
+            ReconstructionParameters params) {
+
+        float[] cutoff = cutoffRadius(params, width, height);
+        float excludeX;
+        float excludeY;
+        if (cutoff == null) {
+            excludeX = DC_FRACTION * width;
+            excludeY = DC_FRACTION * height;
+        } else {
+            // The zero order spreads up to twice the cutoff
+            excludeX = 2 * cutoff[0];
+            excludeY = 2 * cutoff[1];
+        }
+
+        Rectangle upperHalf = new Rectangle(0, 0, width, height / 2 + 1);
+        float[] peak = findPeak(spectrum, packed, width, height, upperHalf, excludeX, excludeY);
+        if (peak == null) {
+            return null;
+        }
+
+        // Distance to the zero order [px]
+        float distance = (float) Math.hypot(peak[0] - width / 2, peak[1] - height / 2);
+        float rx;
+        float ry;
+        if (cutoff == null) {
+            rx = distance / 3;
+            ry = distance / 3;
+        } else {
+            // Never reaching the zero order
+            float scale = Math.min(1, distance / (2 * Math.max(cutoff[0], cutoff[1])));
+            rx = scale * cutoff[0];
+            ry = scale * cutoff[1];
+        }
+        return new float[]{peak[0], peak[1], rx, ry};
+    }
+
+    /**
+     * Radius of the orders given by the objective: its cutoff frequency, NA /
+     * (M lambda), in spectral pixels
+     *
+     * @param params - Settings with the objective and the imaging parameters
+     * @param width - Width of the spectrum [px]
+     * @param height - Height of the spectrum [px]
+     * @return {radius along x, radius along y}, null if the objective or the
+     * imaging parameters are not set
+     */
+    public static float[] cutoffRadius(ReconstructionParameters params, int width, int height) {
+        float na = params.getNA();
+        float mag = params.getMagnification();
+        float lambda = params.getWavelength();
+        float dx = params.getDx();
+        float dy = params.getDy();
+        if (!(na > 0 && mag > 0 && lambda > 0 && dx > 0 && dy > 0)
+                || Float.isInfinite(mag) || Float.isInfinite(dx) || Float.isInfinite(dy)) {
+            return null;
+        }
+        float cutoff = na / (mag * lambda);
+        return new float[]{cutoff * width * dx, cutoff * height * dy};
+    }
+
+    /**
+     * Finds the highest peak of the power spectrum inside a window, leaving
+     * out an ellipse around the zero frequency
+     *
+     * @param spectrum - Unshifted spectrum, complete or packed
+     * @param packed - Whether the spectrum is the packed output of realForward
+     * @param width - Width of the spectrum [px]
+     * @param height - Height of the spectrum [px]
+     * @param window - Searched region of the shifted spectrum, clipped to it
+     * @param excludeX - Radius of the excluded zero order along x [px]
+     * @param excludeY - Radius of the excluded zero order along y [px]
+     * @return {x, y, power} of the sub-pixel peak, null if the window has no
+     * peak
+     */
+    public static float[] findPeak(float[] spectrum, boolean packed, int width, int height,
+            Rectangle window, float excludeX, float excludeY) {
+        float[] peak = new float[3];
+        return findPeak(spectrum, packed, width, height, window, excludeX, excludeY,
+                peak, new int[3]) ? peak : null;
+    }
+
+    /**
+     * Same as the other findPeak, without allocations, for the tracking of
+     * every few frames
+     *
+     * @param spectrum - Unshifted spectrum, complete or packed
+     * @param packed - Whether the spectrum is the packed output of realForward
+     * @param width - Width of the spectrum [px]
+     * @param height - Height of the spectrum [px]
+     * @param window - Searched region of the shifted spectrum, clipped to it
+     * @param excludeX - Radius of the excluded zero order along x [px]
+     * @param excludeY - Radius of the excluded zero order along y [px]
+     * @param peak - Receives {x, y, power} of the sub-pixel peak
+     * @param location - Scratch of 3 elements
+     * @return false if the window has no peak
+     */
+    public static boolean findPeak(float[] spectrum, boolean packed, int width, int height,
+            Rectangle window, float excludeX, float excludeY, float[] peak, int[] location) {
+
+        int x0 = Math.max(window.x, 0);
+        int y0 = Math.max(window.y, 0);
+        int x1 = Math.min(window.x + window.width, width);
+        int y1 = Math.min(window.y + window.height, height);
+        float cx = width / 2;
+        float cy = height / 2;
+        float ex2 = excludeX * excludeX;
+        float ey2 = excludeY * excludeY;
+
+        float best = 0;
+        int bestX = -1;
+        int bestY = -1;
+        for (int y = y0; y < y1; y++) {
+            float ny2 = (ey2 > 0) ? (y - cy) * (y - cy) / ey2 : Float.POSITIVE_INFINITY;
+            for (int x = x0; x < x1; x++) {
+                float nx2 = (ex2 > 0) ? (x - cx) * (x - cx) / ex2 : Float.POSITIVE_INFINITY;
+                if (nx2 + ny2 <= 1) {
+                    continue;
+                }
+                float p = power(spectrum, packed, width, height, x, y, location);
+                if (p > best) {
+                    best = p;
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+        }
+        if (bestX < 0) {
+            return false;
+        }
+
+        peak[0] = bestX + refine(
+                power(spectrum, packed, width, height, bestX - 1, bestY, location), best,
+                power(spectrum, packed, width, height, bestX + 1, bestY, location));
+        peak[1] = bestY + refine(
+                power(spectrum, packed, width, height, bestX, bestY - 1, location), best,
+                power(spectrum, packed, width, height, bestX, bestY + 1, location));
+        peak[2] = best;
+        return true;
+    }
+
+    /**
+     * Offset of the top of a Gaussian through three equally spaced samples,
+     * 0 if they do not have a positive maximum at the middle one
+     */
+    private static float refine(float before, float peak, float after) {
+        if (!(before > 0 && after > 0 && peak >= before && peak >= after)) {
+            return 0;
+        }
+        double lb = Math.log(before);
+        double lp = Math.log(peak);
+        double la = Math.log(after);
+        double curvature = lb - 2 * lp + la;
+        if (curvature >= 0) {
+            return 0;
+        }
+        double offset = 0.5 * (lb - la) / curvature;
+        return (float) Math.max(-0.5, Math.min(0.5, offset));
+    }
+
+    /**
+     * Squared modulus of a bin of the shifted spectrum, 0 outside of it
+     */
+    private static float power(float[] spectrum, boolean packed, int width, int height,
+            int x, int y, int[] location) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return 0;
+        }
+        int kx = (x + width / 2) % width;
+        int ky = (y + height / 2) % height;
+        float re;
+        float im;
+        if (packed) {
+            SpectralTransferFunction.locatePacked(height, width, ky, kx, location);
+            re = spectrum[location[0]];
+            im = (location[1] < 0) ? 0 : spectrum[location[1]];
+        } else {
+            int s = 2 * (ky * width + kx);
+            re = spectrum[s];
+            im = spectrum[s + 1];
+        }
+        return re * re + im * im;
+    }
+
+    /**
+     * Bounds of the filter of an order. They have an even size and are
+     * centered on the whole pixel of the order, which center() takes to the
+     * zero frequency; they shrink symmetrically to stay in the spectrum.
+     *
+     * @param order - {x, y, radius along x, radius along y} [px]
+     * @param width - Width of the spectrum [px]
+     * @param height - Height of the spectrum [px]
+     * @return bounds in the shifted spectrum
+     */
+    public static Rectangle filterBounds(float[] order, int width, int height) {
+        int x = Math.round(order[0]);
+        int y = Math.round(order[1]);
+        int halfWidth = Math.min((int) Math.ceil(order[2]), Math.min(x, width - x));
+        int halfHeight = Math.min((int) Math.ceil(order[3]), Math.min(y, height - y));
+        return new Rectangle(x - halfWidth, y - halfHeight, 2 * halfWidth, 2 * halfHeight);
+    }
+
+    /**
+     * Elliptical mask of an order inside its filter bounds
+     *
+     * @param order - {x, y, radius along x, radius along y} [px]
+     * @param bounds - Bounds of the filter
+     * @return [x][y] mask of the bounds, 255 inside of the order
+     */
+    public static int[][] filterMask(float[] order, Rectangle bounds) {
+        int[][] mask = new int[bounds.width][bounds.height];
+        float rx = Math.max(order[2], 0.5f);
+        float ry = Math.max(order[3], 0.5f);
+        for (int x2 = 0; x2 < bounds.width; x2++) {
+            float nx = (bounds.x + x2 - order[0]) / rx;
+            for (int y2 = 0; y2 < bounds.height; y2++) {
+                float ny = (bounds.y + y2 - order[1]) / ry;
+                if (nx * nx + ny * ny <= 1) {
+                    mask[x2][y2] = 255;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Carrier compensation that takes the order from the center of its filter
+     * bounds to the zero frequency
+     *
+     * @param order - {x, y, ...} [px]
+     * @param bounds - Bounds of the filter, from filterBounds()
+     * @return {fx tuning, fy tuning} [spectral px]
+     */
+    public static float[] carrierResidual(float[] order, Rectangle bounds) {
+        return new float[]{
+            bounds.x + bounds.width / 2 - order[0],
+            bounds.y + bounds.height / 2 - order[1]};
+    }
+}
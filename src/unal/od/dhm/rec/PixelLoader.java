@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+
+/**
+ * Copies the pixels of the source processor into the reconstruction buffers.
+ * There is one kernel per pixel type that reads the native pixel array of the
+ * processor, so the source image is never converted nor copied. The optional
+ * dark-frame subtraction and flat-field division are applied in the same
+ * pass.
+ * <p>
+ * The correction frames are kept in an immutable object, so they can be
+ * replaced from the GUI while a frame is being loaded.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class PixelLoader {
+
+    private volatile Correction correction;
+    // Uncorrected frames, kept to recompute the flat-field gain
+    private float[] darkFrame;
+    private float[] flatFrame;
+
+    /**
+     * Loads the pixels of a processor
+     *
+     * @param ip - Source processor
+     * @param dst - Destination array
+     * @param complex - true to write interleaved complex values with null
+     * imaginaries, false to write real values
+     */
+    public void load(ImageProcessor ip, float[] dst, boolean complex) {
+        Correction c = this.correction;
+        if (c != null && c.dark.length != ip.getPixelCount()) {
+            // Frames of another size
+            c = null;
+        }
+
+        Object pixels = ip.getPixels();
+        int stride = complex ? 2 : 1;
+        if (pixels instanceof byte[]) {
+            loadBytes((byte[]) pixels, dst, stride, c);
+        } else if (pixels instanceof short[]) {
+            loadShorts((short[]) pixels, dst, stride, c);
+        } else if (pixels instanceof float[]) {
+            loadFloats((float[]) pixels, dst, stride, c);
+        } else {
+            // RGB: the processor knows how to convert its values
+            loadProcessor(ip, dst, stride, c);
+        }
+
+        if (complex) {
+            int n = ip.getPixelCount();
+            for (int i = 0; i < n; i++) {
+                dst[2 * i + 1] = 0;
+            }
+        }
+    }
+
+    private static void loadBytes(byte[] pixels, float[] dst, int stride, Correction c) {
+        int n = pixels.length;
+        if (c == null) {
+            for (int i = 0; i < n; i++) {
+                dst[stride * i] = pixels[i] & 0xff;
+            }
+        } else {
+            float[] dark = c.dark;
+            float[] gain = c.gain;
+            for (int i = 0; i < n; i++) {
+                dst[stride * i] = ((pixels[i] & 0xff) - dark[i]) * gain[i];
+            }
+        }
+    }
+
+    private static void loadShorts(short[] pixels, float[] dst, int stride, Correction c) {
+        int n = pixels.length;
+        if (c == null) {
+            for (int i = 0; i < n; i++) {
+                dst[stride * i] = pixels[i] & 0xffff;
+            }
+        } else {
+            float[] dark = c.dark;
+            float[] gain = c.gain;
+            for (int i = 0; i < n; i++) {
+                dst[stride * i] = ((pixels[i] & 0xffff) - dark[i]) * gain[i];
+            }
+        }
+    }
+
+    private static void loadFloats(float[] pixels, float[] dst, int stride, Correction c) {
+        int n = pixels.length;
+        if (c == null) {
+            for (int i = 0; i < n; i++) {
+                dst[stride * i] = pixels[i];
+            }
+        } else {
+            float[] dark = c.dark;
+            float[] gain = c.gain;
+            for (int i = 0; i < n; i++) {
+                dst[stride * i] = (pixels[i] - dark[i]) * gain[i];
+            }
+        }
+    }
+
+    private static void loadProcessor(ImageProcessor ip, float[] dst, int stride, Correction c) {
+        int n = ip.getPixelCount();
+        for (int i = 0; i < n; i++) {
+            float v = ip.getf(i);
+            dst[stride * i] = (c == null) ? v : (v - c.dark[i]) * c.gain[i];
+        }
+    }
+
+    /**
+     * Uses the current frame of a processor as the dark frame, or removes it
+     *
+     * @param ip - Processor showing the dark frame, null to remove it
+     */
+    public synchronized void setDarkFrame(ImageProcessor ip) {
+        darkFrame = (ip == null) ? null : snapshot(ip);
+        if (darkFrame != null && flatFrame != null && flatFrame.length != darkFrame.length) {
+            // The source changed its size
+            flatFrame = null;
+        }
+        update();
+    }
+
+    /**
+     * Uses the current frame of a processor as the flat field, or removes it
+     *
+     * @param ip - Processor showing the flat field, null to remove it
+     */
+    public synchronized void setFlatField(ImageProcessor ip) {
+        flatFrame = (ip == null) ? null : snapshot(ip);
+        if (darkFrame != null && flatFrame != null && flatFrame.length != darkFrame.length) {
+            // The source changed its size
+            darkFrame = null;
+        }
+        update();
+    }
+
+    public boolean hasDarkFrame() {
+        Correction c = this.correction;
+        return c != null && c.hasDark;
+    }
+
+    public boolean hasFlatField() {
+        Correction c = this.correction;
+        return c != null && c.hasFlat;
+    }
+
+    private static float[] snapshot(ImageProcessor ip) {
+        float[] frame = new float[ip.getPixelCount()];
+        new PixelLoader().load(ip, frame, false);
+        return frame;
+    }
+
+    /**
+     * Rebuilds the correction. The flat field is normalized to its mean after
+     * the dark subtraction, so the corrected frames keep their level.
+     */
+    private void update() {
+        if (darkFrame == null && flatFrame == null) {
+            correction = null;
+            return;
+        }
+        int n = (darkFrame != null) ? darkFrame.length : flatFrame.length;
+        float[] dark = (darkFrame != null) ? darkFrame : new float[n];
+        float[] gain = new float[n];
+
+        if (flatFrame == null) {
+            Arrays.fill(gain, 1);
+        } else {
+            double mean = 0;
+            for (int i = 0; i < n; i++) {
+                mean += flatFrame[i] - dark[i];
+            }
+            mean /= n;
+            for (int i = 0; i < n; i++) {
+                float level = flatFrame[i] - dark[i];
+                // Dead pixels of the flat field are left uncorrected
+                gain[i] = (level > 0) ? (float) (mean / level) : 1;
+            }
+        }
+
+        correction = new Correction(dark, gain, darkFrame != null, flatFrame != null);
+    }
+
+    /**
+     * Dark frame and flat-field gain, per pixel
+     */
+    private static final class Correction {
+
+        private final float[] dark;
+        private final float[] gain;
+        private final boolean hasDark;
+        private final boolean hasFlat;
+
+        Correction(float[] dark, float[] gain, boolean hasDark, boolean hasFlat) {
+            this.dark = dark;
+            this.gain = gain;
+            this.hasDark = hasDark;
+            this.hasFlat = hasFlat;
+        }
+    }
+}
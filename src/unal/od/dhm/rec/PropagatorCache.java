@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU of angular spectrum propagators. Each propagator holds its
+ * transfer-function kernel, so keeping the ones for the recently used
+ * distances avoids recomputing them when the refocus distance is stepped
+ * back and forth. The cache is bounded by the bytes of the kernels, so large
+ * frames keep only the propagator in use.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class PropagatorCache {
+
+    // Each kernel takes 8 bytes per pixel: at most 4 of them and 128 MB,
+    // though the one in use is always kept
+    private static final int MAX_KERNELS = 4;
+    private static final long MAX_BYTES = 128L << 20;
+
+    // Access ordered, the eldest entry is the least recently used
+    private final Map<Key, AngularSpectrumPropagator> propagators = new LinkedHashMap<>(8, 0.75f, true);
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Gets the angular spectrum propagator for the given parameters, creating
+     * it only if it is not cached.
+     *
+     * @param M - Width [px]
+     * @param N - Height [px]
+     * @param lambda - Wavelength
+     * @param z - Propagation distance
+     * @param dx - Pixel pitch along x
+     * @param dy - Pixel pitch along y
+     * @return propagator
+     */
+    public synchronized AngularSpectrumPropagator get(int M, int N, float lambda, float z,
+            float dx, float dy) {
+
+        Key key = new Key(M, N, lambda, z, dx, dy);
+        AngularSpectrumPropagator propagator = propagators.get(key);
+        if (propagator != null) {
+            hits++;
+            return propagator;
+        }
+
+        misses++;
+        propagator = new AngularSpectrumPropagator(M, N, lambda, z, dx, dy);
+        propagators.put(key, propagator);
+        bytes += kernelBytes(M, N);
+
+        // Evicts the least recently used ones, never the new one
+        Iterator<Key> eldest = propagators.keySet().iterator();
+        while (propagators.size() > 1
+                && (propagators.size() > MAX_KERNELS || bytes > MAX_BYTES)) {
+            Key k = eldest.next();
+            eldest.remove();
+            bytes -= kernelBytes(k.M, k.N);
+        }
+        return propagator;
+    }
+
+    private static long kernelBytes(int M, int N) {
+        return 8L * M * N;
+    }
+
+    /**
+     * Releases every cached propagator.
+     */
+    public synchronized void clear() {
+        propagators.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Optical parameters that define a propagator
+     */
+    private static final class Key {
+
+        private final int M, N;
+        private final float lambda, z, dx, dy;
+
+        Key(int M, int N, float lambda, float z, float dx, float dy) {
+            this.M = M;
+            this.N = N;
+            this.lambda = lambda;
+            this.z = z;
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return M == k.M && N == k.N
+                    && Float.floatToIntBits(lambda) == Float.floatToIntBits(k.lambda)
+                    && Float.floatToIntBits(z) == Float.floatToIntBits(k.z)
+                    && Float.floatToIntBits(dx) == Float.floatToIntBits(k.dx)
+                    && Float.floatToIntBits(dy) == Float.floatToIntBits(k.dy);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 31 * M + N;
+            h = 31 * h + Float.floatToIntBits(lambda);
+            h = 31 * h + Float.floatToIntBits(z);
+            h = 31 * h + Float.floatToIntBits(dx);
+            h = 31 * h + Float.floatToIntBits(dy);
+            return h;
+        }
+    }
+}
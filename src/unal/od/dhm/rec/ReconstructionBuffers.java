@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Preallocated working arrays for one frame of the live reconstruction. Every
+ * stage of a frame writes into these buffers, which are only reallocated when
+ * the image size changes, so a steady-state frame does not create garbage.
+ * When the reconstruction is pipelined, several of these travel through the
+ * stages at the same time.
+ * <p>
+ * The buffers also accumulate how many bytes the stages allocate while
+ * processing the frame, which makes any regression in the hot path visible.
+ * Only the threads that run the stages are counted: the blocks the kernels
+ * and the FFTs run on the thread pools, and the wrappers the pools make of
+ * them, are not, so the count is a lower bound.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class ReconstructionBuffers {
+
+    // Input size
+    private int width = -1;
+    private int height = -1;
+    // Output size, smaller than the input one when the field is reconstructed
+    // with the bandwidth of the filter
+    private int outWidth = -1;
+    private int outHeight = -1;
+
+    // Complex buffers, flat and row-major. The input field is transformed in
+    // place into its spectrum and the output field is filtered and propagated
+    // in place.
+    private ComplexField field;
+    ComplexField outputField;
+
+    // Real input, width * height row-major, transformed in place into its
+    // packed half spectrum
+    private float[] realField;
+
+    // Render buffers, row-major and sized as the output: displayed values,
+    // their 8-bit pixels and their range
+    float[] display;
+    byte[] pixels;
+    final float[] range = new float[2];
+    final HistogramEqualizer equalizer = new HistogramEqualizer();
+    final DisplayRenderer renderer = new DisplayRenderer();
+    // Filter copy of the transform stage
+    final SpectrumCenterer centerer = new SpectrumCenterer();
+
+    // Frame state, and the settings captured when it was acquired
+    ReconstructionParameters params;
+    int recoType;
+    boolean composite;
+    long frameTime;
+    String title;
+    // Key of the frame in the FrameChangeDetector
+    long checksum;
+    long settingsKey;
+
+    // Allocation metric
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = initAllocationMetric();
+    private long stageStartBytes;
+    private long allocated;
+
+    /**
+     * Makes sure the input buffers fit a width x height image. Buffers are
+     * only reallocated when the size changes.
+     *
+     * @param width
+     * @param height
+     * @return true if the buffers were reallocated
+     */
+    public boolean ensureSize(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return false;
+        }
+
+        this.width = width;
+        this.height = height;
+
+        // The input buffers are allocated on first use, a frame only needs
+        // one of them
+        field = null;
+        realField = null;
+
+        return true;
+    }
+
+    /**
+     * Makes sure the output and display buffers fit a width x height field.
+     * Buffers are only reallocated when the size changes.
+     *
+     * @param width
+     * @param height
+     * @return true if the buffers were reallocated
+     */
+    public boolean ensureOutputSize(int width, int height) {
+        if (width == this.outWidth && height == this.outHeight) {
+            return false;
+        }
+
+        this.outWidth = width;
+        this.outHeight = height;
+
+        outputField = new ComplexField(width, height);
+        display = new float[width * height];
+        pixels = new byte[width * height];
+
+        return true;
+    }
+
+    /**
+     * Gets the complex input buffer
+     *
+     * @return complex field
+     */
+    ComplexField getField() {
+        if (field == null) {
+            field = new ComplexField(width, height);
+        }
+        return field;
+    }
+
+    /**
+     * Gets the real input buffer, width * height row-major
+     *
+     * @return real field
+     */
+    float[] getRealField() {
+        if (realField == null) {
+            realField = new float[width * height];
+        }
+        return realField;
+    }
+
+    private static boolean initAllocationMetric() {
+        if (!(THREAD_BEAN instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+        if (!bean.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        if (!bean.isThreadAllocatedMemoryEnabled()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return true;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) THREAD_BEAN)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Marks the beginning of a stage for the allocation metric. Must be called
+     * from the thread that runs the stage.
+     */
+    public void stageStarted() {
+        if (ALLOCATION_SUPPORTED) {
+            stageStartBytes = currentThreadAllocatedBytes();
+        }
+    }
+
+    /**
+     * Marks the end of a stage for the allocation metric. Must be called from
+     * the same thread that called {@link #stageStarted()}.
+     */
+    public void stageFinished() {
+        if (ALLOCATION_SUPPORTED) {
+            allocated += currentThreadAllocatedBytes() - stageStartBytes;
+        }
+    }
+
+    /**
+     * Gets the bytes allocated by all the stages of this frame and resets the
+     * count for the next one.
+     *
+     * @return allocated bytes, or -1 if the JVM cannot measure it
+     */
+    public long takeAllocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return -1;
+        }
+        long bytes = allocated;
+        allocated = 0;
+        return bytes;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOutputWidth() {
+        return outWidth;
+    }
+
+    public int getOutputHeight() {
+        return outHeight;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.awt.Rectangle;
+
+/**
+ * Snapshot of the settings of the live reconstruction. A snapshot is never
+ * modified once published, all its fields are final: the settings are changed
+ * by publishing a copy made with one of the with* methods, which also
+ * increases the version. Each
+ * frame captures the current snapshot when it is acquired and all its stages
+ * read that one, so a change made from the GUI never reaches a frame halfway,
+ * and the caches derived from the settings are valid while their version
+ * matches.
+ * <p>
+ * The lengths are in m. The callers convert the values of the preferences and
+ * of the settings frame, given in their own units, on the way in.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class ReconstructionParameters {
+
+    private final int version;
+
+    // Size of the hologram [px]
+    private final int imgWidth;
+    private final int imgHeight;
+
+    // Imaging parameters
+    private final float wavelength;
+    private final float dx;
+    private final float dy;
+
+    // Microscope parameters
+    private final float moMag;
+    private final float moNA;
+    private final float tlFocal;
+
+    // Tuning parameters, and the compensation angles they give
+    private final float refocusZ;
+    private final float fxTuning;
+    private final float fyTuning;
+    private final float linTuning;
+    private final float compFxTune;
+    private final float compFyTune;
+
+    // Filter of the +1 order, in the shifted spectrum
+    private final boolean filtered;
+    private final int roiX;
+    private final int roiY;
+    private final int roiWidth;
+    private final int roiHeight;
+    private final int[][] roiMask;
+
+    // Reconstruction modes
+    private final boolean reducedSize;
+    private final boolean composite;
+    private final boolean logScale;
+    // Saturated pixels of the linear spectrum view [%], 0 to equalize it
+    private final double spectrumSaturation;
+
+    /**
+     * Initial settings, without filter
+     *
+     * @param imgWidth - Width of the hologram [px]
+     * @param imgHeight - Height of the hologram [px]
+     */
+    public ReconstructionParameters(int imgWidth, int imgHeight) {
+        this(new Builder(imgWidth, imgHeight));
+    }
+
+    /**
+     * Settings with the values of a builder, the compensation angles are
+     * derived
+     */
+    private ReconstructionParameters(Builder b) {
+        this.version = b.version;
+        this.imgWidth = b.imgWidth;
+        this.imgHeight = b.imgHeight;
+        this.wavelength = b.wavelength;
+        this.dx = b.dx;
+        this.dy = b.dy;
+        this.moMag = b.moMag;
+        this.moNA = b.moNA;
+        this.tlFocal = b.tlFocal;
+        this.refocusZ = b.refocusZ;
+        this.fxTuning = b.fxTuning;
+        this.fyTuning = b.fyTuning;
+        this.linTuning = b.linTuning;
+        this.compFxTune = (fxTuning == 0) ? 0
+                : (float) Math.asin(fxTuning * wavelength / (imgWidth * dx));
+        this.compFyTune = (fyTuning == 0) ? 0
+                : (float) Math.asin(fyTuning * wavelength / (imgHeight * dy));
+        this.filtered = b.filtered;
+        this.roiX = b.roiX;
+        this.roiY = b.roiY;
+        this.roiWidth = b.roiWidth;
+        this.roiHeight = b.roiHeight;
+        this.roiMask = b.roiMask;
+        this.reducedSize = b.reducedSize;
+        this.composite = b.composite;
+        this.logScale = b.logScale;
+        this.spectrumSaturation = b.spectrumSaturation;
+    }
+
+    /**
+     * Mutable copy of a snapshot, with the next version, from which the with*
+     * methods build the new one
+     */
+    private static final class Builder {
+
+        private int version;
+        private final int imgWidth;
+        private final int imgHeight;
+        private float wavelength;
+        private float dx;
+        private float dy;
+        private float moMag;
+        private float moNA;
+        private float tlFocal;
+        private float refocusZ;
+        private float fxTuning;
+        private float fyTuning;
+        private float linTuning;
+        private boolean filtered;
+        private int roiX;
+        private int roiY;
+        private int roiWidth;
+        private int roiHeight;
+        private int[][] roiMask;
+        private boolean reducedSize;
+        private boolean composite;
+        private boolean logScale = true;
+        private double spectrumSaturation;
+
+        private Builder(int imgWidth, int imgHeight) {
+            this.imgWidth = imgWidth;
+            this.imgHeight = imgHeight;
+        }
+
+        private Builder(ReconstructionParameters p) {
+            this.version = p.version + 1;
+            this.imgWidth = p.imgWidth;
+            this.imgHeight = p.imgHeight;
+            this.wavelength = p.wavelength;
+            this.dx = p.dx;
+            this.dy = p.dy;
+            this.moMag = p.moMag;
+            this.moNA = p.moNA;
+            this.tlFocal = p.tlFocal;
+            this.refocusZ = p.refocusZ;
+            this.fxTuning = p.fxTuning;
+            this.fyTuning = p.fyTuning;
+            this.linTuning = p.linTuning;
+            this.filtered = p.filtered;
+            this.roiX = p.roiX;
+            this.roiY = p.roiY;
+            this.roiWidth = p.roiWidth;
+            this.roiHeight = p.roiHeight;
+            this.roiMask = p.roiMask;
+            this.reducedSize = p.reducedSize;
+            this.composite = p.composite;
+            this.logScale = p.logScale;
+            this.spectrumSaturation = p.spectrumSaturation;
+        }
+
+        private ReconstructionParameters build() {
+            return new ReconstructionParameters(this);
+        }
+    }
+
+    /**
+     * @param wavelength - Wavelength [m]
+     * @param dx - Pixel pitch along x [m]
+     * @param dy - Pixel pitch along y [m]
+     * @return copy with the new imaging parameters
+     */
+    public ReconstructionParameters withImaging(float wavelength, float dx, float dy) {
+        Builder b = new Builder(this);
+        b.wavelength = wavelength;
+        b.dx = dx;
+        b.dy = dy;
+        return b.build();
+    }
+
+    /**
+     * @param magnification - Magnification of the objective
+     * @param na - Numerical aperture of the objective
+     * @param tlFocal - Focal length of the tube lens [m]
+     * @return copy with the new microscope parameters
+     */
+    public ReconstructionParameters withMicroscope(float magnification, float na, float tlFocal) {
+        Builder b = new Builder(this);
+        b.moMag = magnification;
+        b.moNA = na;
+        b.tlFocal = tlFocal;
+        return b.build();
+    }
+
+    /**
+     * @param refocusZ - Refocusing distance [m]
+     * @param fxTuning - Carrier compensation along x [spectral px]
+     * @param fyTuning - Carrier compensation along y [spectral px]
+     * @param linTuning - Constant phase [rad]
+     * @return copy with the new tuning parameters
+     */
+    public ReconstructionParameters withTuning(float refocusZ, float fxTuning, float fyTuning,
+            float linTuning) {
+        Builder b = new Builder(this);
+        b.refocusZ = refocusZ;
+        b.fxTuning = fxTuning;
+        b.fyTuning = fyTuning;
+        b.linTuning = linTuning;
+        return b.build();
+    }
+
+    /**
+     * @param roi - Bounds of the filter in the shifted spectrum
+     * @param mask - [x][y] mask of the bounds, null for the whole rectangle.
+     * It is not copied, so it must not be modified afterwards.
+     * @return copy with the new filter
+     */
+    public ReconstructionParameters withFilter(Rectangle roi, int[][] mask) {
+        Builder b = new Builder(this);
+        b.filtered = true;
+        b.roiX = roi.x;
+        b.roiY = roi.y;
+        b.roiWidth = roi.width;
+        b.roiHeight = roi.height;
+        b.roiMask = mask;
+        return b.build();
+    }
+
+    /**
+     * @param reducedSize - Reconstruct with the bandwidth of the filter
+     * @return copy with the new mode
+     */
+    public ReconstructionParameters withReducedSize(boolean reducedSize) {
+        Builder b = new Builder(this);
+        b.reducedSize = reducedSize;
+        return b.build();
+    }
+
+    /**
+     * @param composite - Filter, refocus and compensate with a single
+     * transfer function
+     * @return copy with the new mode
+     */
+    public ReconstructionParameters withComposite(boolean composite) {
+        Builder b = new Builder(this);
+        b.composite = composite;
+        return b.build();
+    }
+
+    /**
+     * @param logScale - Logarithmic scaling of the display
+     * @return copy with the new scaling
+     */
+    public ReconstructionParameters withLogScale(boolean logScale) {
+        Builder b = new Builder(this);
+        b.logScale = logScale;
+        return b.build();
+    }
+
+    /**
+     * @param saturation - Saturated pixels of the linear spectrum view [%],
+     * 0 to equalize it instead
+     * @return copy with the new enhancement
+     */
+    public ReconstructionParameters withSpectrumSaturation(double saturation) {
+        Builder b = new Builder(this);
+        b.spectrumSaturation = saturation;
+        return b.build();
+    }
+
+    /**
+     * Same settings with the next version, for changes that are kept
+     * elsewhere but must reach the next frame, such as the dark frame
+     *
+     * @return copy with the next version
+     */
+    public ReconstructionParameters next() {
+        return new Builder(this).build();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public float getWavelength() {
+        return wavelength;
+    }
+
+    public float getDx() {
+        return dx;
+    }
+
+    public float getDy() {
+        return dy;
+    }
+
+    public float getMagnification() {
+        return moMag;
+    }
+
+    public float getNA() {
+        return moNA;
+    }
+
+    public float getTubeLensFocal() {
+        return tlFocal;
+    }
+
+    /**
+     * @return width of a hologram pixel in the sample plane [um], 1 while the
+     * pitch is not set
+     */
+    public double getCalibrationWidth() {
+        return sampleSize(dx);
+    }
+
+    /**
+     * @return height of a hologram pixel in the sample plane [um], 1 while
+     * the pitch is not set
+     */
+    public double getCalibrationHeight() {
+        return sampleSize(dy);
+    }
+
+    /**
+     * Size in the sample plane of a pitch of the camera [um]. Without an
+     * objective it is the pitch itself.
+     */
+    private double sampleSize(float pitch) {
+        if (!(pitch > 0)) {
+            return 1;
+        }
+        return (moMag > 0) ? pitch * 1E6 / moMag : pitch * 1E6;
+    }
+
+    public float getRefocusZ() {
+        return refocusZ;
+    }
+
+    public float getFxTuning() {
+        return fxTuning;
+    }
+
+    public float getFyTuning() {
+        return fyTuning;
+    }
+
+    public float getLinTuning() {
+        return linTuning;
+    }
+
+    /**
+     * @return compensation angle along x [rad]
+     */
+    public float getCompFxTune() {
+        return compFxTune;
+    }
+
+    /**
+     * @return compensation angle along y [rad]
+     */
+    public float getCompFyTune() {
+        return compFyTune;
+    }
+
+    public boolean isFiltered() {
+        return filtered;
+    }
+
+    public int getRoiX() {
+        return roiX;
+    }
+
+    public int getRoiY() {
+        return roiY;
+    }
+
+    public int getRoiWidth() {
+        return roiWidth;
+    }
+
+    public int getRoiHeight() {
+        return roiHeight;
+    }
+
+    /**
+     * @return bounds of the filter in the shifted spectrum
+     */
+    public Rectangle getRoi() {
+        return new Rectangle(roiX, roiY, roiWidth, roiHeight);
+    }
+
+    /**
+     * @return [x][y] mask of the filter, null for the whole rectangle. It must
+     * not be modified.
+     */
+    public int[][] getRoiMask() {
+        return roiMask;
+    }
+
+    public boolean isReducedSize() {
+        return reducedSize;
+    }
+
+    public boolean isComposite() {
+        return composite;
+    }
+
+    public boolean isLogScale() {
+        return logScale;
+    }
+
+    /**
+     * @return saturated pixels of the linear spectrum view [%], 0 if it is
+     * equalized
+     */
+    public double getSpectrumSaturation() {
+        return spectrumSaturation;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs the live reconstruction as a pipeline. The acquisition is done by the
+ * calling thread (the visualization thread) and every other stage runs on its
+ * own worker, connected by bounded queues. The number of frames in flight is
+ * limited by a small pool of {@link ReconstructionBuffers}, so the throughput
+ * approaches the one of the slowest stage without unbounded memory use.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class ReconstructionPipeline {
+
+    // Stages
+    static final int STAGE_ACQUIRE = 0;
+    static final int STAGE_TRANSFORM = 1;
+    static final int STAGE_PROPAGATE = 2;
+    static final int STAGE_RENDER = 3;
+    static final int STAGE_DISPLAY = 4;
+    static final int STAGES = 5;
+    static final String[] STAGE_NAMES = {"Acquire", "FFT", "Propagate", "Render", "Display"};
+
+    // Sizing
+    private static final int FRAMES_IN_FLIGHT = 4;
+    private static final int QUEUE_CAPACITY = 2;
+    private static final long POLL_MS = 100;
+
+    private final LiveReconstruction_ live;
+    private final BlockingQueue<ReconstructionBuffers> free;
+    private final List<BlockingQueue<ReconstructionBuffers>> queues;
+    private final Thread[] workers;
+    private volatile boolean running;
+
+    // Statistics
+    private final AtomicLongArray busyNanos = new AtomicLongArray(STAGES);
+    private long statsStart;
+
+    public ReconstructionPipeline(LiveReconstruction_ live) {
+        this.live = live;
+
+        free = new ArrayBlockingQueue<>(FRAMES_IN_FLIGHT);
+        for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+            free.add(new ReconstructionBuffers());
+        }
+
+        // queues.get(s) feeds stage s, the acquisition is fed by the free
+        // pool and has no queue
+        queues = new ArrayList<>(STAGES);
+        queues.add(null);
+        for (int s = STAGE_TRANSFORM; s < STAGES; s++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        }
+
+        workers = new Thread[STAGES];
+        for (int s = STAGE_TRANSFORM; s < STAGES; s++) {
+            final int stage = s;
+            workers[s] = new Thread(() -> work(stage), "DHM " + STAGE_NAMES[s]);
+            workers[s].setDaemon(true);
+        }
+    }
+
+    /**
+     * Starts the stage workers
+     */
+    public void start() {
+        running = true;
+        statsStart = System.nanoTime();
+        for (int s = STAGE_TRANSFORM; s < STAGES; s++) {
+            workers[s].start();
+        }
+    }
+
+    /**
+     * Stops the workers, discarding the frames in flight
+     */
+    public void stop() {
+        running = false;
+        for (int s = STAGE_TRANSFORM; s < STAGES; s++) {
+            workers[s].interrupt();
+        }
+        for (int s = STAGE_TRANSFORM; s < STAGES; s++) {
+            try {
+                workers[s].join();
+            } catch (InterruptedException ex) {
+                System.out.println("Couldn't stop the pipeline: " + ex.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Acquires a new frame in the calling thread and hands it to the pipeline.
+     * Blocks while all the buffers are in flight.
+     *
+     * @return false if the pipeline was stopped while waiting
+     */
+    public boolean acquire() {
+        ReconstructionBuffers frame = null;
+        try {
+            while (running && frame == null) {
+                frame = free.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            }
+            if (frame == null) {
+                return false;
+            }
+
+            runStage(STAGE_ACQUIRE, frame);
+            queues.get(STAGE_TRANSFORM).put(frame);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (RuntimeException ex) {
+            System.out.println("Acquisition failed: " + ex.getMessage());
+            recycle(frame);
+            return true;
+        }
+    }
+
+    private void work(int stage) {
+        while (running) {
+            ReconstructionBuffers frame;
+            try {
+                frame = queues.get(stage).take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            // Event-driven sources: skip a frame if a newer one is already queued
+            if (stage == STAGE_TRANSFORM && !queues.get(stage).isEmpty()
+                    && live.getScheduler().isEventDriven()) {
+                live.getScheduler().frameDropped();
+                recycle(frame);
+                continue;
+            }
+
+            try {
+                runStage(stage, frame);
+                if (stage == STAGE_DISPLAY) {
+                    free.put(frame);
+                } else {
+                    queues.get(stage + 1).put(frame);
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                // Recycle the buffers, a failed frame must not stall the pipeline
+                System.out.println(STAGE_NAMES[stage] + " stage failed: " + ex.getMessage());
+                recycle(frame);
+            }
+        }
+    }
+
+    /**
+     * Returns the buffers of a frame that will not be displayed to the pool
+     */
+    private void recycle(ReconstructionBuffers frame) {
+        live.frameDiscarded(frame);
+        frame.takeAllocatedBytes();
+        free.offer(frame);
+    }
+
+    private void runStage(int stage, ReconstructionBuffers frame) {
+        long start = System.nanoTime();
+        live.runStage(stage, frame);
+        busyNanos.addAndGet(stage, System.nanoTime() - start);
+    }
+
+    /**
+     * Describes the queue depths and the stage utilization since the last
+     * call.
+     *
+     * @return status text
+     */
+    public String getStatus() {
+        long now = System.nanoTime();
+        double elapsed = Math.max(1, now - statsStart);
+        statsStart = now;
+
+        StringBuilder sb = new StringBuilder("Queues");
+        for (int s = STAGE_TRANSFORM; s < STAGES; s++) {
+            sb.append(s == STAGE_TRANSFORM ? " " : "/").append(queues.get(s).size());
+        }
+        sb.append(" | Busy");
+        for (int s = 0; s < STAGES; s++) {
+            double busy = 100 * busyNanos.getAndSet(s, 0) / elapsed;
+            sb.append(String.format(Locale.US, " %s %.0f%%", STAGE_NAMES[s], Math.min(busy, 100)));
+        }
+        return sb.toString();
+    }
+}
@@ -271,19 +271,19 @@ public class ReconstructionSettingsFrame extends javax.swing.JFrame implements P
 
         // Imaging parameters
         boolean imagParSet = lambdaSet && inputWSet && inputHSet;
-        int N = parentFrame.getImagePlus().getWidth();
-        int M = parentFrame.getImagePlus().getHeight();
-        if(imagParSet) {
-            parentFrame.liveReco.setImagingParameters(lambdaUm, inputWUm / N, inputHUm / M);
-        } else {
+        // Size of the camera frame, the displayed one may be reduced
+        int N = parentFrame.liveReco.getImageWidth();
+        int M = parentFrame.liveReco.getImageHeight();
+        if(!imagParSet) {
             JOptionPane.showMessageDialog(this, "Invalid imaging conditions");
             return false;
         }
         
-        // Microscope parameters
+        // Microscope parameters, set along with the imaging ones
         boolean microParSet = moNASet && moMagSet && tlFocalSet;
         if(microParSet) {
-            parentFrame.liveReco.setMicroscopeParameters(moMagUser, moNAUser, tlFocalUm);
+            parentFrame.liveReco.setImagingParameters(lambdaUm, inputWUm / N, inputHUm / M,
+                    moMagUser, moNAUser, tlFocalUm);
         } else {
             JOptionPane.showMessageDialog(this, "Invalid microscope values");
             return false;
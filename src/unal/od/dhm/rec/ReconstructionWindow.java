@@ -19,18 +19,29 @@ import ij.IJ;
 import ij.ImageListener;
 import ij.ImagePlus;
 import ij.gui.ImageWindow;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
 import java.awt.Button;
 import java.awt.Checkbox;
+import java.awt.Choice;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.DisplayMode;
+import java.awt.EventQueue;
 import java.awt.Font;
 import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
+import java.awt.Label;
 import java.awt.Panel;
+import java.awt.TextArea;
 import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.WindowEvent;
 import java.util.Locale;
 import javax.swing.JTextField;
+import javax.swing.Timer;
+import unal.od.dhm.utils.Parallel;
 
 /**
  *
@@ -57,9 +68,45 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
     private Button phaseBtn;
     private Button fftBtn;
     private Button newFilterBtn;
+    private Button autoFilterBtn;
     private Panel panel;
     private Checkbox logScaleChk;
+    private Checkbox eventDrivenChk;
+    private Checkbox reducedChk;
+    private Checkbox compositeChk;
+    private Checkbox trackChk;
+    private Checkbox darkChk;
+    private Checkbox flatChk;
     private JTextField fpsField;
+    private JTextField framesField;
+    private Label statusLabel;
+    private Checkbox timingsChk;
+    private Panel timingsPanel;
+    private TextArea timingsArea;
+    private Button timingsTableBtn;
+
+    // Double buffer of the displayed pixels
+    private final Object frameLock = new Object();
+    private byte[] backPixels;
+    private boolean swapPending = false;
+    private String pendingTitle;
+    private Calibration pendingCali;
+    private volatile long displayedFrames = 0;
+
+    // Display rate: every frame, or a fixed repaint rate driven by a timer
+    private static final String[] DISPLAY_RATES = {"All frames", "Monitor", "60 Hz", "30 Hz", "15 Hz"};
+    private static final double[] DISPLAY_HZ = {0, -1, 60, 30, 15};
+    private static final double DEFAULT_REFRESH_HZ = 60;
+    private Choice displayRateChoice;
+    // Enhancement of the linear spectrum: equalized, or stretched with a
+    // percentage of saturated pixels
+    private static final String[] SPECTRUM_ENHANCEMENTS = {"Equalize", "Sat. 0.1%",
+        "Sat. 0.35%", "Sat. 1%", "Sat. 5%"};
+    private static final double[] SPECTRUM_SATURATIONS = {0, 0.1, 0.35, 1, 5};
+    private Choice spectrumChoice;
+    // Compute threads: automatic, or a fixed count
+    private Choice threadsChoice;
+    private Timer repaintTimer;
     private Button settingsBtn;
 
     // Status Parameters
@@ -102,12 +149,18 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
 
     @Override
     public void imageUpdated(ImagePlus ip) {
-        // Nothing to do
+        // A new frame from the source wakes the visualization thread
+        if (ip.getID() == this.ID) {
+            this.liveReco.getScheduler().frameDelivered();
+        }
     }
 
     @Override
     public void windowClosing(WindowEvent e) {
         this.liveReco.stopLive();
+        if (this.repaintTimer != null) {
+            this.repaintTimer.stop();
+        }
         ImagePlus.removeImageListener((ImageListener) this);
         super.windowClosing(e);
     }
@@ -125,6 +178,132 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
         }
     }
 
+    /**
+     * Shows a rendered frame reusing the processor of the window. The pixels
+     * are copied into a back buffer that the event dispatch thread swaps with
+     * the displayed one, so it never draws a half-written frame. Frames that
+     * arrive before the swap replace the pending one. A new image is only
+     * created when the size changes.
+     *
+     * @param pixels - 8-bit pixels of the frame
+     * @param width - Width of the frame
+     * @param height - Height of the frame
+     * @param title - Title of the frame
+     * @param cal - Calibration of the frame, or null
+     */
+    public void showFrame(byte[] pixels, int width, int height, String title, Calibration cal) {
+        ImagePlus imp1 = this.getImagePlus();
+        if (imp1 == null) {
+            return;
+        }
+
+        ImageProcessor ip1 = imp1.getProcessor();
+        if (ip1 == null || ip1.getWidth() != width || ip1.getHeight() != height
+                || !(ip1.getPixels() instanceof byte[])) {
+            ImagePlus resized = new ImagePlus(title, new ByteProcessor(width, height, pixels.clone()));
+            resized.setCalibration(cal);
+            EventQueue.invokeLater(() -> {
+                ReconstructionWindow.this.newImage(resized);
+                ReconstructionWindow.this.displayedFrames++;
+            });
+            return;
+        }
+
+        boolean post;
+        synchronized (this.frameLock) {
+            if (this.backPixels == null || this.backPixels.length != pixels.length) {
+                this.backPixels = new byte[pixels.length];
+            }
+            System.arraycopy(pixels, 0, this.backPixels, 0, pixels.length);
+            this.pendingTitle = title;
+            this.pendingCali = cal;
+            post = !this.swapPending;
+            this.swapPending = true;
+        }
+        // With a fixed display rate the timer does the swap
+        if (post && this.repaintTimer == null) {
+            EventQueue.invokeLater(this::swapFrame);
+        }
+    }
+
+    /**
+     * Displays the back buffer, on the event dispatch thread
+     */
+    private void swapFrame() {
+        ImagePlus imp1 = this.getImagePlus();
+        if (imp1 == null) {
+            return;
+        }
+
+        synchronized (this.frameLock) {
+            if (!this.swapPending) {
+                // Nothing new since the last repaint
+                return;
+            }
+            this.swapPending = false;
+            ImageProcessor ip1 = imp1.getProcessor();
+            if (ip1 == null || ip1.getPixelCount() != this.backPixels.length) {
+                // Resized in the meantime
+                return;
+            }
+            byte[] front = (byte[]) ip1.getPixels();
+            ip1.setPixels(this.backPixels);
+            this.backPixels = front;
+
+            if (!this.pendingTitle.equals(imp1.getTitle())) {
+                imp1.setTitle(this.pendingTitle);
+            }
+            imp1.setCalibration(this.pendingCali);
+        }
+        imp1.updateAndDraw();
+        this.displayedFrames++;
+    }
+
+    /**
+     * Sets the rate of the repaints. The reconstruction keeps running at its
+     * own rate, only the newest frame is drawn on each repaint.
+     *
+     * @param hz - Repaints per second, 0 to draw every frame, negative to use
+     * the refresh rate of the monitor
+     */
+    public void setDisplayRate(double hz) {
+        if (hz < 0) {
+            hz = getMonitorRefreshRate();
+        }
+        if (this.repaintTimer != null) {
+            this.repaintTimer.stop();
+            this.repaintTimer = null;
+        }
+        if (hz > 0) {
+            this.repaintTimer = new Timer((int) Math.max(1, Math.round(1000 / hz)),
+                    (ActionEvent ae) -> ReconstructionWindow.this.swapFrame());
+            this.repaintTimer.start();
+        } else {
+            // A frame may be waiting for the stopped timer
+            EventQueue.invokeLater(this::swapFrame);
+        }
+    }
+
+    private double getMonitorRefreshRate() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return DEFAULT_REFRESH_HZ;
+        }
+        int rate = (this.getGraphicsConfiguration() != null)
+                ? this.getGraphicsConfiguration().getDevice().getDisplayMode().getRefreshRate()
+                : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                        .getDisplayMode().getRefreshRate();
+        return (rate == DisplayMode.REFRESH_RATE_UNKNOWN) ? DEFAULT_REFRESH_HZ : rate;
+    }
+
+    /**
+     * Number of frames drawn in the window
+     *
+     * @return displayed frames
+     */
+    public long getDisplayedFrames() {
+        return this.displayedFrames;
+    }
+
     /**
      * Initializes the GUI elements and their action listeners
      */
@@ -180,6 +359,21 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
             IJ.setTool(1);
         });
         this.panel.add(this.newFilterBtn);
+
+        // Auto filter button: Finds the +1 order and sets the filter
+        this.autoFilterBtn = new Button("Auto filter");
+        this.autoFilterBtn.addActionListener((ActionEvent ae) -> {
+            // The FFT of the whole frame takes a while, away from the EDT
+            ReconstructionWindow.this.autoFilterBtn.setEnabled(false);
+            new Thread(() -> {
+                try {
+                    ReconstructionWindow.this.liveReco.setAutomaticFilter();
+                } finally {
+                    EventQueue.invokeLater(() -> ReconstructionWindow.this.autoFilterBtn.setEnabled(true));
+                }
+            }, "DHM Auto filter").start();
+        });
+        this.panel.add(this.autoFilterBtn);
         
         // Reconstruction buttons: Set the reconstruction type
         // FFT
@@ -218,11 +412,32 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
         this.panel.add(this.phaseBtn);
         
         // FPS Text Field: Updates with the current FPS rate
-        this.fpsField = new JTextField(String.format(Locale.US, "%.3f fps", 0.0), 8);
+        this.fpsField = new JTextField(String.format(Locale.US, "%.3f fps", 0.0), 14);
         this.fpsField.setHorizontalAlignment(0);
         this.fpsField.setEditable(false);
+        this.fpsField.setToolTipText("Compute / display rate");
         this.panel.add(this.fpsField);
         
+        // Display rate: the window repaints at this rate, whatever the compute rate
+        this.displayRateChoice = new Choice();
+        for (String rate : DISPLAY_RATES) {
+            this.displayRateChoice.add(rate);
+        }
+        this.displayRateChoice.addItemListener((ItemEvent ie) -> {
+            int idx = ReconstructionWindow.this.displayRateChoice.getSelectedIndex();
+            ReconstructionWindow.this.setDisplayRate(DISPLAY_HZ[idx]);
+        });
+        this.displayRateChoice.select(1);
+        this.setDisplayRate(DISPLAY_HZ[1]);
+        this.panel.add(this.displayRateChoice);
+        
+        // Frames Text Field: Delivered / processed / dropped frame counts
+        this.framesField = new JTextField("0 / 0 / 0", 12);
+        this.framesField.setHorizontalAlignment(0);
+        this.framesField.setEditable(false);
+        this.framesField.setToolTipText("Delivered / processed / dropped frames");
+        this.panel.add(this.framesField);
+        
         // Logaritmic scaling check box: Allows to toggle visualization
         this.logScaleChk = new Checkbox("Log. Scaling");
         this.logScaleChk.addItemListener((ItemEvent ie) -> {
@@ -233,6 +448,92 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
         this.logScaleChk.setState(this.log);
         this.panel.add(this.logScaleChk);
         
+        // Spectrum choice: Enhancement of the FFT view without log. scaling
+        this.spectrumChoice = new Choice();
+        for (String enhancement : SPECTRUM_ENHANCEMENTS) {
+            this.spectrumChoice.add(enhancement);
+        }
+        double saturation = liveReco.getSpectrumSaturation();
+        for (int i = 0; i < SPECTRUM_SATURATIONS.length; i++) {
+            if (SPECTRUM_SATURATIONS[i] == saturation) {
+                this.spectrumChoice.select(i);
+            }
+        }
+        this.spectrumChoice.addItemListener((ItemEvent ie) -> {
+            int idx = ReconstructionWindow.this.spectrumChoice.getSelectedIndex();
+            ReconstructionWindow.this.liveReco.setSpectrumSaturation(SPECTRUM_SATURATIONS[idx]);
+        });
+        this.panel.add(this.spectrumChoice);
+        
+        // Event-driven check box: Reconstructs on source updates instead of polling
+        this.eventDrivenChk = new Checkbox("On updates");
+        this.eventDrivenChk.addItemListener((ItemEvent ie) -> {
+            ReconstructionWindow.this.liveReco.setEventDriven(ReconstructionWindow.this.eventDrivenChk.getState());
+        });
+        this.eventDrivenChk.setState(liveReco.getScheduler().isEventDriven());
+        this.panel.add(this.eventDrivenChk);
+        
+        // Reduced size check box: Reconstructs with the bandwidth of the filter
+        this.reducedChk = new Checkbox("Reduced");
+        this.reducedChk.addItemListener((ItemEvent ie) -> {
+            ReconstructionWindow.this.liveReco.setReducedSize(ReconstructionWindow.this.reducedChk.getState());
+        });
+        this.reducedChk.setState(liveReco.isReducedSize());
+        this.panel.add(this.reducedChk);
+        
+        // Composite check box: Reconstructs with a single transfer function
+        this.compositeChk = new Checkbox("Composite");
+        this.compositeChk.addItemListener((ItemEvent ie) -> {
+            ReconstructionWindow.this.liveReco.setComposite(ReconstructionWindow.this.compositeChk.getState());
+        });
+        this.compositeChk.setState(liveReco.isComposite());
+        this.panel.add(this.compositeChk);
+
+        // Track check box: The filter follows the drift of the +1 order
+        this.trackChk = new Checkbox("Track");
+        this.trackChk.addItemListener((ItemEvent ie) -> {
+            ReconstructionWindow.this.liveReco.setTracking(ReconstructionWindow.this.trackChk.getState());
+        });
+        this.trackChk.setState(liveReco.isTracking());
+        this.panel.add(this.trackChk);
+        
+        // Dark and flat check boxes: Capture the current source frame as the
+        // dark frame or the flat field, unchecking removes it
+        this.darkChk = new Checkbox("Dark");
+        this.darkChk.addItemListener((ItemEvent ie) -> {
+            ReconstructionWindow.this.liveReco.setDarkFrame(ReconstructionWindow.this.darkChk.getState());
+        });
+        this.darkChk.setState(liveReco.getPixelLoader().hasDarkFrame());
+        this.panel.add(this.darkChk);
+        this.flatChk = new Checkbox("Flat");
+        this.flatChk.addItemListener((ItemEvent ie) -> {
+            ReconstructionWindow.this.liveReco.setFlatField(ReconstructionWindow.this.flatChk.getState());
+        });
+        this.flatChk.setState(liveReco.getPixelLoader().hasFlatField());
+        this.panel.add(this.flatChk);
+        
+        // Threads choice: Tunes the thread counts for the frame size, or fixes them
+        this.threadsChoice = new Choice();
+        this.threadsChoice.add("Auto threads");
+        int maxThreads = Parallel.getMaxThreads();
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            this.threadsChoice.add(threads + ((threads == 1) ? " thread" : " threads"));
+        }
+        // The kernels run with the chosen count, the FFTs may round it down
+        this.threadsChoice.select(liveReco.isAutoParallelism() ? 0
+                : Math.min(Parallel.getKernelThreads(), maxThreads));
+        this.threadsChoice.addItemListener((ItemEvent ie) -> {
+            int threads = ReconstructionWindow.this.threadsChoice.getSelectedIndex();
+            if (threads == 0) {
+                // Timing takes a while, away from the EDT
+                new Thread(ReconstructionWindow.this.liveReco::retuneParallelism,
+                        "DHM Autotune").start();
+            } else {
+                ReconstructionWindow.this.liveReco.setParallelism(threads);
+            }
+        });
+        this.panel.add(this.threadsChoice);
+        
         // Settings button
         this.settingsBtn = new Button("Settings");
         this.settingsBtn.addActionListener((ActionEvent ae) -> {
@@ -241,8 +542,35 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
         this.settingsBtn.setEnabled(true);
         this.panel.add(this.settingsBtn);
         
+        // Timings check box: Shows the percentiles of every reconstruction step
+        this.timingsChk = new Checkbox("Timings");
+        this.timingsChk.addItemListener((ItemEvent ie) -> {
+            ReconstructionWindow.this.showTimings(ReconstructionWindow.this.timingsChk.getState());
+        });
+        this.panel.add(this.timingsChk);
+        
+        // Status label: performance information of the live reconstruction
+        this.statusLabel = new Label(liveReco.getStatus(), Label.CENTER);
+        this.statusLabel.setForeground(Color.DARK_GRAY);
+        
+        // Timings panel: p50 / p95 / p99 of the steps, hidden until requested
+        this.timingsPanel = new Panel();
+        this.timingsArea = new TextArea(liveReco.getTimings().getReport(),
+                StageTimings.NAMES.length + 1, 48, TextArea.SCROLLBARS_NONE);
+        this.timingsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        this.timingsArea.setEditable(false);
+        this.timingsPanel.add(this.timingsArea);
+        this.timingsTableBtn = new Button("To table");
+        this.timingsTableBtn.addActionListener((ActionEvent ae) -> {
+            ReconstructionWindow.this.liveReco.getTimings().showTable("Timings of " + ReconstructionWindow.this.getTitle());
+        });
+        this.timingsPanel.add(this.timingsTableBtn);
+        this.timingsPanel.setVisible(false);
+        
         // Pack everything in the window
         this.add((Component) this.panel);
+        this.add((Component) this.statusLabel);
+        this.add((Component) this.timingsPanel);
         this.pack();
         ImagePlus.addImageListener((ImageListener) this);
         
@@ -263,12 +591,66 @@ public class ReconstructionWindow extends ImageWindow implements ImageListener {
     }
     
     /**
-     * Updates the fps count in the window
+     * Updates the compute and display rates and the frame counts in the
+     * window, on the event dispatch thread
+     *
+     * @param computeFps - Reconstructed frames per second
+     * @param displayFps - Displayed frames per second
+     * @param delivered - Frames delivered by the source
+     * @param processed - Frames reconstructed
+     * @param dropped - Frames replaced by a newer one before being processed
+     */
+    public void setFPS(double computeFps, double displayFps, long delivered, long processed,
+            long dropped) {
+        String fps = String.format(Locale.US, "%.1f / %.1f fps", computeFps, displayFps);
+        String frames = delivered + " / " + processed + " / " + dropped;
+        EventQueue.invokeLater(() -> {
+            this.fpsField.setText(fps);
+            this.framesField.setText(frames);
+        });
+    }
+
+    /**
+     * Updates the performance information of the live reconstruction, growing
+     * the window if the text no longer fits. Called from the visualization
+     * thread, so the layout is done on the event dispatch thread.
+     *
+     * @param text - Status description
+     */
+    public void setStatus(String text) {
+        EventQueue.invokeLater(() -> {
+            this.statusLabel.setText(text);
+            if (this.statusLabel.getPreferredSize().width > this.statusLabel.getWidth()) {
+                this.pack();
+            }
+        });
+    }
+
+    /**
+     * Shows or hides the timings panel
      *
-     * @param fps - New FPS count
+     * @param show - true to show the panel
      */
-    public void setFPS(double fps) {
-        this.fpsField.setText(String.format(Locale.US, "%.3f", fps) + " fps");
+    public void showTimings(boolean show) {
+        if (show) {
+            this.timingsArea.setText(this.liveReco.getTimings().getReport());
+        }
+        this.timingsPanel.setVisible(show);
+        this.pack();
+    }
+
+    /**
+     * Refreshes the timings panel, if it is shown, on the event dispatch
+     * thread
+     *
+     * @param timings - Timings of the reconstruction steps
+     */
+    public void setTimings(StageTimings timings) {
+        EventQueue.invokeLater(() -> {
+            if (this.timingsPanel.isVisible()) {
+                this.timingsArea.setText(timings.getReport());
+            }
+        });
     }
 
     public void enableRecoTypes() {
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.awt.Rectangle;
+import unal.od.dhm.utils.Parallel;
+
+/**
+ * Composite transfer function of the reconstruction. The spatial filter, the
+ * centering of the filtered order, the angular spectrum refocusing and the
+ * linear phase compensation (a spectral shift) are folded into a single
+ * sparse complex array, so a frame is reconstructed with one forward FFT, one
+ * pointwise multiplication and one inverse FFT.
+ * <p>
+ * Only the bins inside the filter are stored. For each of them the position
+ * of the source value in the forward spectrum (complete or packed by
+ * realForward) is resolved when the function is built, so applying it needs
+ * neither the centering shifts nor the symmetry rules of the packed layout.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class SpectralTransferFunction {
+
+    // Settings version and geometry it was built for
+    private final int version;
+    private final int width;
+    private final int height;
+    private final boolean packed;
+
+    // Destination of each bin in the interleaved output
+    private final int[] dst;
+    // Source of each bin in the forward spectrum: the imaginary index is -1
+    // for purely real values and its sign is -1 for conjugated values
+    private final int[] srcRe;
+    private final int[] srcIm;
+    private final float[] imSign;
+    // Transfer values
+    private final float[] hRe;
+    private final float[] hIm;
+    private int count;
+
+    // Arguments of the current application, read by the block loop
+    private float[] spectrum;
+    private float[] out;
+    private final Parallel.Loop applyLoop = new Parallel.Loop(this::applyBlock);
+
+    /**
+     * Builds the composite transfer function.
+     *
+     * @param version - Version of the settings used
+     * @param inWidth - Width of the forward spectrum (input width), even
+     * @param inHeight - Height of the forward spectrum (input height), even
+     * @param packed - Whether the spectrum is the packed output of realForward
+     * @param roi - Filter bounds in the centered spectrum
+     * @param mask - Filter mask, or null for the whole rectangle
+     * @param width - Output width, even
+     * @param height - Output height, even
+     * @param lambda - Wavelength
+     * @param z - Refocus distance
+     * @param dx - Output pixel pitch along x
+     * @param dy - Output pixel pitch along y
+     * @param shiftX - Linear compensation along x [bins]
+     * @param shiftY - Linear compensation along y [bins]
+     * @param offset - Constant phase compensation [rad]
+     */
+    public SpectralTransferFunction(int version, int inWidth, int inHeight, boolean packed,
+            Rectangle roi, int[][] mask, int width, int height, float lambda,
+            float z, float dx, float dy, int shiftX, int shiftY, float offset) {
+
+        this.version = version;
+        this.width = width;
+        this.height = height;
+        this.packed = packed;
+
+        int capacity = roi.width * roi.height;
+        dst = new int[capacity];
+        srcRe = new int[capacity];
+        srcIm = new int[capacity];
+        imSign = new float[capacity];
+        hRe = new float[capacity];
+        hIm = new float[capacity];
+
+        // Same placement of the filtered order as the regular centering
+        int a = (width - roi.width - 2 * roi.x) / 2;
+        int b = (height - roi.height - 2 * roi.y) / 2;
+        // A regular ROI leaves out its last row and column
+        int last = (mask == null) ? 1 : 0;
+
+        // The compensation is referred to the center of the field
+        double phase0 = offset - Math.PI * (shiftX + shiftY);
+        double invLambda2 = 1.0 / ((double) lambda * lambda);
+        int[] location = new int[3];
+
+        for (int y = roi.y, y2 = 0; y < roi.y + roi.height - last; y++, y2++) {
+            for (int x = roi.x, x2 = 0; x < roi.x + roi.width - last; x++, x2++) {
+                if (mask != null && mask[x2][y2] == 0) {
+                    continue;
+                }
+
+                // Centered position before and after the compensation shift
+                int u = x + a;
+                int v = y + b;
+                int pu = Math.floorMod(u + shiftX, width);
+                int pv = Math.floorMod(v + shiftY, height);
+
+                // Angular spectrum kernel, evanescent waves are discarded
+                double fx = (u - width / 2) / (width * (double) dx);
+                double fy = (v - height / 2) / (height * (double) dy);
+                double phase = AngularSpectrumPropagator.phase(fx, fy, invLambda2, z);
+                if (Double.isNaN(phase)) {
+                    continue;
+                }
+                phase += phase0;
+
+                // Unshifted positions
+                int kx = (x + inWidth / 2) % inWidth;
+                int ky = (y + inHeight / 2) % inHeight;
+                if (packed) {
+                    locatePacked(inHeight, inWidth, ky, kx, location);
+                } else {
+                    location[0] = 2 * (ky * inWidth + kx);
+                    location[1] = location[0] + 1;
+                    location[2] = 1;
+                }
+
+                dst[count] = 2 * (((pv + height / 2) % height) * width + (pu + width / 2) % width);
+                srcRe[count] = location[0];
+                srcIm[count] = location[1];
+                imSign[count] = location[2];
+                hRe[count] = (float) Math.cos(phase);
+                hIm[count] = (float) Math.sin(phase);
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Locates a bin of the spectrum in the packed output of the 1D-array
+     * FloatFFT_2D.realForward, using its Hermitian symmetry.
+     *
+     * @param rows - Rows of the spectrum (image height), even
+     * @param cols - Columns of the spectrum (image width), even
+     * @param k1 - Row of the bin
+     * @param k2 - Column of the bin
+     * @param location - Receives the index of the real part, the index of the
+     * imaginary part (-1 if it is zero) and the sign of the imaginary part
+     */
+    static void locatePacked(int rows, int cols, int k1, int k2, int[] location) {
+        int row, re, im, sign = 1;
+        if (k2 > 0 && k2 < cols / 2) {
+            row = k1;
+            re = 2 * k2;
+            im = 2 * k2 + 1;
+        } else if (k2 > cols / 2) {
+            // Conjugate of the symmetric frequency
+            row = (rows - k1) % rows;
+            re = 2 * (cols - k2);
+            im = re + 1;
+            sign = -1;
+        } else if (k1 == 0 || k1 == rows / 2) {
+            // Purely real values
+            row = k1;
+            re = (k2 == 0) ? 0 : 1;
+            im = -1;
+        } else if (k2 == 0) {
+            // Column 0, stored in the first pair of each row
+            row = (k1 < rows / 2) ? k1 : rows - k1;
+            re = 0;
+            im = 1;
+            sign = (k1 < rows / 2) ? 1 : -1;
+        } else {
+            // Column cols/2, stored swapped in the first pair of the
+            // symmetric row
+            row = (k1 < rows / 2) ? rows - k1 : k1;
+            re = 1;
+            im = 0;
+            sign = (k1 < rows / 2) ? -1 : 1;
+        }
+        location[0] = row * cols + re;
+        location[1] = (im < 0) ? -1 : row * cols + im;
+        location[2] = sign;
+    }
+
+    /**
+     * Applies the transfer function: the output receives the product of the
+     * filtered spectrum and the transfer function, ready to be inverse
+     * transformed. The function is shared by the frames, so the calls are
+     * serialized.
+     *
+     * @param spectrum - Forward spectrum, unshifted
+     * @param output - width x height destination
+     */
+    public synchronized void apply(float[] spectrum, ComplexField output) {
+        output.clear();
+        this.spectrum = spectrum;
+        this.out = output.getData();
+
+        // Every bin has its own destination
+        try {
+            applyLoop.forRows(count, 1);
+        } finally {
+            // The buffers belong to the caller
+            this.spectrum = null;
+            this.out = null;
+        }
+    }
+
+    private void applyBlock(int block, int start, int end) {
+        for (int n = start; n < end; n++) {
+            float re = spectrum[srcRe[n]];
+            float im = (srcIm[n] < 0) ? 0 : imSign[n] * spectrum[srcIm[n]];
+
+            int d = dst[n];
+            out[d] = re * hRe[n] - im * hIm[n];
+            out[d + 1] = re * hIm[n] + im * hRe[n];
+        }
+    }
+
+    /**
+     * Checks whether this function can be used for a frame
+     *
+     * @param version - Current settings version
+     * @param width - Output width
+     * @param height - Output height
+     * @param packed - Layout of the forward spectrum
+     * @return true if it was built for the same settings and geometry
+     */
+    public boolean isValid(int version, int width, int height, boolean packed) {
+        return this.version == version && this.width == width
+                && this.height == height && this.packed == packed;
+    }
+
+    /**
+     * Number of bins inside the filter
+     *
+     * @return bin count
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import unal.od.dhm.utils.Parallel;
+
+/**
+ * Copies the filtered order of a spectrum, complete or packed, to the center
+ * of the output field. Each row of the filter goes to its own row of the
+ * output, so the rows are copied in blocks on the kernel threads. The block
+ * loop and the scratch of each block are kept by the centerer, so each frame
+ * buffer has its own centerer and centering allocates nothing.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+final class SpectrumCenterer {
+
+    // Arguments of the current copy, read by the block loop
+    private float[] spectrum;
+    private boolean packed;
+    private int inWidth;
+    private int inHeight;
+    private float[] out;
+    private int width;
+    private int height;
+    private int roiX;
+    private int roiY;
+    private int roiWidth;
+    private int[][] mask;
+    private int a;
+    private int b;
+    private int last;
+
+    // Packed location of each block, grown when there are more blocks
+    private int[][] locations = new int[Parallel.getMaxThreads()][3];
+
+    private final Parallel.Loop copyLoop = new Parallel.Loop(this::copyBlock);
+
+    /**
+     * Copies the filter to the output field, which must be cleared. The
+     * centerer keeps the state of the copy it runs, so it must not be shared
+     * between threads.
+     *
+     * @param spectrum - Unshifted spectrum, complete or packed
+     * @param packed - Whether the spectrum is the packed output of realForward
+     * @param inWidth - Width of the spectrum [px]
+     * @param inHeight - Height of the spectrum [px]
+     * @param params - Settings with the filter
+     * @param output - Output field
+     */
+    void copy(float[] spectrum, boolean packed, int inWidth, int inHeight,
+            ReconstructionParameters params, ComplexField output) {
+
+        this.spectrum = spectrum;
+        this.packed = packed;
+        this.inWidth = inWidth;
+        this.inHeight = inHeight;
+        this.out = output.getData();
+        this.width = output.getWidth();
+        this.height = output.getHeight();
+        this.roiX = params.getRoiX();
+        this.roiY = params.getRoiY();
+        this.roiWidth = params.getRoiWidth();
+        this.mask = params.getRoiMask();
+
+        // New size and index
+        this.a = (width - roiWidth - 2 * roiX) / 2;
+        this.b = (height - params.getRoiHeight() - 2 * roiY) / 2;
+        // A regular ROI leaves out its last row and column
+        this.last = (mask == null) ? 1 : 0;
+
+        int rows = params.getRoiHeight() - last;
+        int blocks = Parallel.blockCount(rows, roiWidth);
+        if (locations.length < blocks) {
+            locations = new int[blocks][3];
+        }
+        try {
+            copyLoop.forBlocks(rows, blocks);
+        } finally {
+            // The buffers belong to the caller
+            this.spectrum = null;
+            this.out = null;
+            this.mask = null;
+        }
+    }
+
+    private void copyBlock(int block, int start, int end) {
+        int[] location = locations[block];
+        for (int y2 = start; y2 < end; y2++) {
+            int y = roiY + y2;
+            // Rows of the source and of the destination, both unshifted
+            int ky = (y + inHeight / 2) % inHeight;
+            int dstRow = ((y + b + height / 2) % height) * width;
+            for (int x = roiX, x2 = 0; x < roiX + roiWidth - last; x++, x2++) {
+                if (mask != null && mask[x2][y2] == 0) {
+                    continue;
+                }
+                int kx = (x + inWidth / 2) % inWidth;
+                int d = 2 * (dstRow + (x + a + width / 2) % width);
+                if (packed) {
+                    SpectralTransferFunction.locatePacked(inHeight, inWidth, ky, kx, location);
+                    out[d] = spectrum[location[0]];
+                    out[d + 1] = (location[1] < 0) ? 0 : location[2] * spectrum[location[1]];
+                } else {
+                    int s = 2 * (ky * inWidth + kx);
+                    out[d] = spectrum[s];
+                    out[d + 1] = spectrum[s + 1];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import ij.measure.ResultsTable;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Rolling timings of the steps of the live reconstruction. Each step keeps
+ * the durations of its last frames in a ring, so the percentiles follow the
+ * current settings instead of the whole session. Recording costs a store;
+ * the percentiles are only computed when they are shown.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class StageTimings {
+
+    // Steps
+    public static final int INGEST = 0;
+    public static final int FFT = 1;
+    public static final int FILTER = 2;
+    public static final int PROPAGATE = 3;
+    public static final int COMPENSATE = 4;
+    public static final int RENDER = 5;
+    public static final int DISPLAY = 6;
+    public static final String[] NAMES = {"Ingest", "Forward FFT", "Filter", "Propagate",
+        "Compensate", "Render", "Display"};
+
+    // Frames kept per step
+    private static final int WINDOW = 512;
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    private final Ring[] rings = new Ring[NAMES.length];
+
+    public StageTimings() {
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Ring();
+        }
+    }
+
+    /**
+     * Records the duration of a step
+     *
+     * @param step - One of the step constants
+     * @param nanos - Duration [ns]
+     */
+    public void record(int step, long nanos) {
+        rings[step].add(nanos);
+    }
+
+    /**
+     * Forgets every recorded duration
+     */
+    public void reset() {
+        for (Ring ring : rings) {
+            ring.clear();
+        }
+    }
+
+    /**
+     * Gets the p50, p95 and p99 durations of a step
+     *
+     * @param step - One of the step constants
+     * @return percentiles [ms], NaN if the step has not run
+     */
+    public double[] getPercentiles(int step) {
+        long[] samples = rings[step].snapshot();
+        double[] result = new double[PERCENTILES.length];
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            if (samples.length == 0) {
+                result[p] = Double.NaN;
+                continue;
+            }
+            // Nearest rank
+            int rank = (int) Math.ceil(PERCENTILES[p] / 100 * samples.length) - 1;
+            result[p] = samples[Math.max(0, rank)] * 1E-6;
+        }
+        return result;
+    }
+
+    /**
+     * Number of samples of a step
+     *
+     * @param step - One of the step constants
+     * @return samples in the window
+     */
+    public int getCount(int step) {
+        return rings[step].size();
+    }
+
+    /**
+     * Describes the percentiles of every step that has run, one per line
+     *
+     * @return report text
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "%-12s %8s %8s %8s  [ms]", "Step", "p50", "p95", "p99"));
+        for (int s = 0; s < NAMES.length; s++) {
+            if (getCount(s) == 0) {
+                continue;
+            }
+            double[] p = getPercentiles(s);
+            sb.append(String.format(Locale.US, "%n%-12s %8.3f %8.3f %8.3f",
+                    NAMES[s], p[0], p[1], p[2]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Copies the percentiles into a new ImageJ results table and shows it
+     *
+     * @param title - Title of the table
+     */
+    public void showTable(String title) {
+        ResultsTable rt = new ResultsTable();
+        rt.setPrecision(3);
+        for (int s = 0; s < NAMES.length; s++) {
+            double[] p = getPercentiles(s);
+            rt.incrementCounter();
+            rt.addValue("Step", NAMES[s]);
+            rt.addValue("Samples", getCount(s));
+            rt.addValue("p50 [ms]", p[0]);
+            rt.addValue("p95 [ms]", p[1]);
+            rt.addValue("p99 [ms]", p[2]);
+        }
+        rt.show(title);
+    }
+
+    /**
+     * Ring of the last durations of a step
+     */
+    private static final class Ring {
+
+        private final long[] values = new long[WINDOW];
+        private int next = 0;
+        private int size = 0;
+
+        synchronized void add(long value) {
+            values[next] = value;
+            next = (next + 1) % WINDOW;
+            if (size < WINDOW) {
+                size++;
+            }
+        }
+
+        synchronized void clear() {
+            next = 0;
+            size = 0;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Sorted copy of the values
+         */
+        synchronized long[] snapshot() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
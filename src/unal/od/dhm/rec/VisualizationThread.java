@@ -34,40 +34,52 @@ public class VisualizationThread extends Thread {
     public void run() {
         this.stop = false;
         this.running = true;
-        long timeAccum = 0;
+        FrameScheduler scheduler = this.live.getScheduler();
+        long timeStart = System.nanoTime();
+        long computedStart = this.live.getComputedFrames();
+        long displayedStart = -1;
         int i = 0;
 
         while (!this.stop) {
-            // Get the time of init
-            long time = System.nanoTime();
+            // Wait for a new frame, without sleeping if one is pending
+            try {
+                if (!scheduler.awaitFrame()) {
+                    continue;
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
             // Update the image information
             boolean ret = this.live.updateImage();
-            // Stop if something goes wrong
+            // Stop if something goes wrong. stopLive() would join this
+            // thread, so it just ends.
             if (!ret) {
-                //this.running = false;
-                //return;
-                live.stopLive();
-                continue;
+                break;
             }
-            // Delay the thread execution
-            try {
-                VisualizationThread.sleep(10L);
-            } catch (InterruptedException ex) {
-                System.out.println("Couldn't sleep: " + ex.getMessage());
-            }
-            // Get the time of end
-            time = System.nanoTime() - time;
-            timeAccum += time;
             // Update the rate after 5 frames
             if (++i % 5 != 0) {
                 continue;
             }
-            // Calculate the FPS rate
-            double fps = 5.0 / ((double) timeAccum * 1.0E-9);
-            this.live.getImageWindow().setFPS(fps);
-            timeAccum = 0;
+            // Calculate the compute and display rates
+            long time = System.nanoTime();
+            double elapsed = (double) (time - timeStart) * 1.0E-9;
+            long computed = this.live.getComputedFrames();
+            double computeFps = (computed - computedStart) / elapsed;
+            ReconstructionWindow window = this.live.getImageWindow();
+            if (window != null) {
+                long displayed = window.getDisplayedFrames();
+                double displayFps = (displayedStart < 0) ? 0 : (displayed - displayedStart) / elapsed;
+                window.setFPS(computeFps, displayFps, scheduler.getDelivered(),
+                        scheduler.getProcessed(), scheduler.getDropped());
+                window.setStatus(this.live.getStatus());
+                window.setTimings(this.live.getTimings());
+                displayedStart = displayed;
+            }
+            timeStart = time;
+            computedStart = computed;
             i = 0;
         }
+        this.running = false;
     }
 
     /**
@@ -75,6 +87,7 @@ public class VisualizationThread extends Thread {
      */
     public void stopDisplay() {
         this.stop = true;
+        this.live.getScheduler().wakeUp();
     }
 
     /**
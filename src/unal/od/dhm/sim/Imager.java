@@ -22,6 +22,9 @@ import ij.process.ImageProcessor;
 import java.util.Random;
 import javax.swing.JOptionPane;
 import org.jtransforms.fft.FloatFFT_2D;
+import unal.od.dhm.utils.ComplexKernels;
+import unal.od.dhm.utils.FFTPlanCache;
+import unal.od.dhm.utils.StageEvents;
 import unal.od.jdiffraction.cpu.utils.ArrayUtils;
 
 /**
@@ -37,7 +40,6 @@ public class Imager {
 
     private float[][] inputField;
     private float[][] outputField;
-    private float[][] hologramField;
     private float[][] hologram;
     private float ampMin = 1, ampMax = 2;                  // Amplitude limits
     private float phaMin = -1 * PI / 4, phaMax = PI / 4;   // Phase limits
@@ -218,14 +220,25 @@ public class Imager {
         }
 
         calculateParameters();
+        // Each stage is a flight recorder event when recording
+        Object event = StageEvents.beginSimulation();
         firstLens();
+        StageEvents.commitSimulation(event, "First lens", N, M);
+        event = StageEvents.beginSimulation();
         pupilPlane();
+        StageEvents.commitSimulation(event, "Pupil plane", N, M);
+        event = StageEvents.beginSimulation();
         secondLens();
-        createHologram();        
+        StageEvents.commitSimulation(event, "Second lens", N, M);
+        event = StageEvents.beginSimulation();
+        createHologram();
+        StageEvents.commitSimulation(event, "Hologram", N, M);
         System.out.printf("\nDif Limit: %b; Polar: %f, Azimuthal: %f\n", isDiffractionLimited, polarDir, azimuthalDir);
         isParametersValid();
 
+        event = StageEvents.beginSimulation();
         createOutputs();
+        StageEvents.commitSimulation(event, "Outputs", N, M);
 
         // Update the used polar value
         String newPolar = String.format("%.3g%n", polarDir);//Double.toString(polarDir);
@@ -233,9 +246,9 @@ public class Imager {
         parentFrame.updateAngleValues(newPolar, newAzimuth);
     }
 
-    private void calculateParameters() {
+    void calculateParameters() {
         objectiveFocal = tlFocal / magnification;
-        fft = new FloatFFT_2D(M, N);
+        fft = FFTPlanCache.getFloat2D(M, N);
     }
 
     private void isParametersValid() {
@@ -252,7 +265,7 @@ public class Imager {
         }
     }
 
-    private void firstLens() {
+    void firstLens() {
         inputPitch = width / M;
         fft.complexForward(inputField);
         ArrayUtils.complexShift(inputField);
@@ -261,7 +274,7 @@ public class Imager {
         focalPitch = focalPitchScale / (M * inputPitch);
     }
 
-    private void pupilPlane() {
+    void pupilPlane() {
         // Pupil parameters
         double pupilRadius = (moNA * tlFocal) / magnification;
         double pupilScaledRadius = (pupilRadius) / focalPitch;
@@ -296,7 +309,7 @@ public class Imager {
 
     }
 
-    private void secondLens() {
+    void secondLens() {
         ArrayUtils.complexShift(outputField);
         fft.complexForward(outputField);
 
@@ -315,7 +328,7 @@ public class Imager {
         for (int i = 0; i < selOut.length; i++) {
             switch (selOut[i]) {
                 case 'A': // Amplitude
-                    createImage(ArrayUtils.modulus(outputField), "Amplitude");
+                    createImage(modulus(outputField), "Amplitude");
                     break;
                 case 'H': // Hologram
                     createImage(hologram, "Hologram");
@@ -324,10 +337,10 @@ public class Imager {
                     createImage(ArrayUtils.imaginary(outputField), "Imaginary");
                     break;
                 case 'I': // Intensity
-                    createImage(ArrayUtils.modulusSq(outputField), "Intensity");
+                    createImage(modulusSq(outputField), "Intensity");
                     break;
                 case 'P': // Phase
-                    createImage(ArrayUtils.phase(outputField), "Phase");
+                    createImage(phase(outputField), "Phase");
                     break;
                 case 'R': // Real
                     createImage(ArrayUtils.real(outputField), "Real");
@@ -343,7 +356,7 @@ public class Imager {
         this.azimuthalDir = azimuthalDir;
     }
 
-    private void createHologram() {
+    void createHologram() {
         // Diffraction limit
         if (isDiffractionLimited) {
             //double polarDirMax = (lambda) / (2 * outputPitch);
@@ -359,14 +372,11 @@ public class Imager {
         double kz = Math.cos(polarDir);
 
         // Object amplitude scaling
-        float[][] objAmp = ArrayUtils.modulus(outputField);
+        float[][] objAmp = modulus(outputField);
         ArrayUtils.scale2(objAmp, 1.0f);
-        float[][] objPha = ArrayUtils.phase(outputField);
+        float[][] objPha = phase(outputField);
         outputField = ArrayUtils.complexAmplitude(objPha, objAmp);
         
-        float[][] objReal = ArrayUtils.real(outputField);
-        float[][] objImag = ArrayUtils.imaginary(outputField);
-        
         float meanValue = 0;
         if(isRefAuto){
             float dataCount = 0;
@@ -402,19 +412,50 @@ public class Imager {
             }
         }
         float[][] reference = ArrayUtils.complexAmplitude(refPha, refAmp);
-        float[][] refReal = ArrayUtils.real(reference);
-        float[][] refImag = ArrayUtils.imaginary(reference);
 
-        float[][] holoReal = new float[M][N];
-        float[][] holoImag = new float[M][N];
+        // |ref + obj|^2, row by row
+        hologram = new float[M][N];
         for (int i = 0; i < M; i++) {
-            for (int j = 0; j < N; j++) {
-                holoReal[i][j] = refReal[i][j] + objReal[i][j];
-                holoImag[i][j] = refImag[i][j] + objImag[i][j];
+            ComplexKernels.hologram(outputField[i], reference[i], hologram[i], N);
+        }
+    }
+
+    /**
+     * Modulus of a complex field
+     */
+    private static float[][] modulus(float[][] field) {
+        float[][] result = new float[field.length][field[0].length / 2];
+        for (int i = 0; i < field.length; i++) {
+            ComplexKernels.modulus(field[i], 0, result[i], 0, result[i].length);
+        }
+        return result;
+    }
+
+    /**
+     * Squared modulus of a complex field
+     */
+    private static float[][] modulusSq(float[][] field) {
+        float[][] result = new float[field.length][field[0].length / 2];
+        for (int i = 0; i < field.length; i++) {
+            ComplexKernels.modulusSq(field[i], 0, result[i], 0, result[i].length);
+        }
+        return result;
+    }
+
+    /**
+     * Phase of a complex field. The output is a 32-bit image, so it uses
+     * Math.atan2() instead of the approximation of ComplexKernels.phase().
+     */
+    private static float[][] phase(float[][] field) {
+        float[][] result = new float[field.length][field[0].length / 2];
+        for (int i = 0; i < field.length; i++) {
+            float[] row = field[i];
+            float[] out = result[i];
+            for (int k = 0; k < out.length; k++) {
+                out[k] = (float) Math.atan2(row[2 * k + 1], row[2 * k]);
             }
         }
-        hologramField = ArrayUtils.complexAmplitude2(holoReal, holoImag);
-        hologram = ArrayUtils.modulusSq(hologramField);
+        return result;
     }
 
     private void createImage(float[][] toShow, String name) {
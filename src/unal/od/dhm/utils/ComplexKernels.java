@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.utils;
+
+/**
+ * Per-pixel complex arithmetic over interleaved (re, im) float arrays, in
+ * plain scalar code: each kernel is a single counted loop over a range. The
+ * ranges let the callers run the kernels over blocks of rows (see Parallel)
+ * or over the rows of a 2D array.
+ * <p>
+ * Offsets and counts are in complex elements for the complex arrays and in
+ * elements for the real ones.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class ComplexKernels {
+
+    private ComplexKernels() {
+    }
+
+    /**
+     * a = a * b
+     *
+     * @param a - Complex array, modified
+     * @param b - Complex array
+     * @param offset - First element, in both arrays
+     * @param count - Number of elements
+     */
+    public static void multiply(float[] a, float[] b, int offset, int count) {
+        int end = 2 * (offset + count);
+        for (int n = 2 * offset; n < end; n += 2) {
+            float re = a[n];
+            float im = a[n + 1];
+            a[n] = re * b[n] - im * b[n + 1];
+            a[n + 1] = re * b[n + 1] + im * b[n];
+        }
+    }
+
+    /**
+     * a = a * (s * b), the product of a row by a separable phasor
+     *
+     * @param a - Complex array, modified
+     * @param offset - First element of a
+     * @param b - Complex array, starting at its first element
+     * @param sRe - Real part of the scale
+     * @param sIm - Imaginary part of the scale
+     * @param count - Number of elements
+     */
+    public static void multiplyScaled(float[] a, int offset, float[] b, float sRe, float sIm,
+            int count) {
+        int o = 2 * offset;
+        for (int k = 0; k < 2 * count; k += 2) {
+            float pRe = sRe * b[k] - sIm * b[k + 1];
+            float pIm = sRe * b[k + 1] + sIm * b[k];
+            float re = a[o + k];
+            float im = a[o + k + 1];
+            a[o + k] = re * pRe - im * pIm;
+            a[o + k + 1] = re * pIm + im * pRe;
+        }
+    }
+
+    /**
+     * dst = |src|
+     *
+     * @param src - Complex array
+     * @param srcOffset - First element of src
+     * @param dst - Real array
+     * @param dstOffset - First element of dst
+     * @param count - Number of elements
+     */
+    public static void modulus(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        int s = 2 * srcOffset;
+        for (int k = 0; k < count; k++) {
+            float re = src[s + 2 * k];
+            float im = src[s + 2 * k + 1];
+            dst[dstOffset + k] = (float) Math.sqrt(re * re + im * im);
+        }
+    }
+
+    /**
+     * dst = |src|^2
+     *
+     * @param src - Complex array
+     * @param srcOffset - First element of src
+     * @param dst - Real array
+     * @param dstOffset - First element of dst
+     * @param count - Number of elements
+     */
+    public static void modulusSq(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        int s = 2 * srcOffset;
+        for (int k = 0; k < count; k++) {
+            float re = src[s + 2 * k];
+            float im = src[s + 2 * k + 1];
+            dst[dstOffset + k] = re * re + im * im;
+        }
+    }
+
+    /**
+     * dst = arg(src), with FastMath.atan2(), for 8-bit display only
+     *
+     * @param src - Complex array
+     * @param srcOffset - First element of src
+     * @param dst - Real array
+     * @param dstOffset - First element of dst
+     * @param count - Number of elements
+     */
+    public static void phase(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        int s = 2 * srcOffset;
+        for (int k = 0; k < count; k++) {
+            dst[dstOffset + k] = FastMath.atan2(src[s + 2 * k + 1], src[s + 2 * k]);
+        }
+    }
+
+    /**
+     * a = scale * ln(a), with FastMath.log(), NaN where a is not positive,
+     * for 8-bit display only
+     *
+     * @param a - Real array, modified
+     * @param offset - First element
+     * @param count - Number of elements
+     * @param scale - Factor of the logarithm, 0.5 gives ln(sqrt(a))
+     */
+    public static void log(float[] a, int offset, int count, float scale) {
+        for (int k = offset; k < offset + count; k++) {
+            a[k] = scale * FastMath.log(a[k]);
+        }
+    }
+
+    /**
+     * dst = |obj + ref|^2, the hologram of an object and a reference wave
+     *
+     * @param obj - Complex object wave
+     * @param ref - Complex reference wave
+     * @param dst - Real array
+     * @param count - Number of elements, from the start of the arrays
+     */
+    public static void hologram(float[] obj, float[] ref, float[] dst, int count) {
+        for (int k = 0; k < count; k++) {
+            float re = obj[2 * k] + ref[2 * k];
+            float im = obj[2 * k + 1] + ref[2 * k + 1];
+            dst[k] = re * re + im * im;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.jtransforms.fft.DoubleFFT_2D;
+import org.jtransforms.fft.FloatFFT_2D;
+
+/**
+ * Shared cache of 2D FFT plans. Building a JTransforms plan is expensive for
+ * large frames, so both the reconstruction and the simulation modules request
+ * their plans here instead of creating them on every call. Plans are keyed by
+ * (rows, columns, precision) and the least recently used one is dropped when
+ * the cache is full. A plan is built outside of the cache lock, by the first
+ * thread that requests it; other threads requesting the same plan wait for it,
+ * and requests of other plans are not blocked.
+ * <p>
+ * JTransforms plans only hold the tables computed when they are built, so
+ * they are immutable and one plan can transform several arrays from several
+ * threads at once, without locking.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class FFTPlanCache {
+
+    // Precision identifiers
+    public static final int FLOAT = 0;
+    public static final int DOUBLE = 1;
+
+    // Maximum number of plans kept alive
+    private static final int MAX_PLANS = 8;
+
+    private static final Map<Long, FutureTask<Object>> PLANS
+            = new LinkedHashMap<Long, FutureTask<Object>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, FutureTask<Object>> eldest) {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    private FFTPlanCache() {
+    }
+
+    /**
+     * Gets a single precision plan for a rows x columns complex array.
+     *
+     * @param rows
+     * @param columns
+     * @return cached plan
+     */
+    public static FloatFFT_2D getFloat2D(int rows, int columns) {
+        return (FloatFFT_2D) getPlan(rows, columns, FLOAT);
+    }
+
+    /**
+     * Gets a double precision plan for a rows x columns complex array.
+     *
+     * @param rows
+     * @param columns
+     * @return cached plan
+     */
+    public static DoubleFFT_2D getDouble2D(int rows, int columns) {
+        return (DoubleFFT_2D) getPlan(rows, columns, DOUBLE);
+    }
+
+    /**
+     * Smallest even size not below n whose only prime factors are 2, 3 and 5,
+     * which JTransforms transforms with its fast mixed-radix algorithms.
+     *
+     * @param n - Minimum size
+     * @return FFT-friendly size
+     */
+    public static int nextFastSize(int n) {
+        for (int size = Math.max(2, n + (n & 1));; size += 2) {
+            int m = size;
+            while (m % 2 == 0) {
+                m /= 2;
+            }
+            while (m % 3 == 0) {
+                m /= 3;
+            }
+            while (m % 5 == 0) {
+                m /= 5;
+            }
+            if (m == 1) {
+                return size;
+            }
+        }
+    }
+
+    private static Object getPlan(int rows, int columns, int precision) {
+        if (rows <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("The plan size must be positive: "
+                    + rows + "x" + columns);
+        }
+
+        Long key = ((long) rows << 33) | ((long) columns << 1) | precision;
+        FutureTask<Object> plan;
+        boolean build = false;
+        synchronized (FFTPlanCache.class) {
+            plan = PLANS.get(key);
+            if (plan == null) {
+                plan = new FutureTask<>(() -> (precision == FLOAT)
+                        ? new FloatFFT_2D(rows, columns) : new DoubleFFT_2D(rows, columns));
+                PLANS.put(key, plan);
+                build = true;
+            }
+        }
+
+        if (build) {
+            plan.run();
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return plan.get();
+                } catch (InterruptedException ex) {
+                    // The plan is needed anyway, the interrupt is kept
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException ex) {
+            // Lets the next request try again
+            synchronized (FFTPlanCache.class) {
+                PLANS.remove(key, plan);
+            }
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Number of plans currently kept in the cache.
+     *
+     * @return cache size
+     */
+    public static synchronized int size() {
+        return PLANS.size();
+    }
+
+    /**
+     * Releases every cached plan.
+     */
+    public static synchronized void clear() {
+        PLANS.clear();
+    }
+}
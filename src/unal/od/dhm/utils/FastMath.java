@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.utils;
+
+/**
+ * Fast approximations of elementary functions for the per-pixel kernels,
+ * where the result is quantized to 8 bits and the accuracy of java.lang.Math
+ * is not needed.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class FastMath {
+
+    private static final float LN2 = (float) Math.log(2);
+    private static final float PI = (float) Math.PI;
+    private static final float HALF_PI = (float) (Math.PI / 2);
+    // Offset that rounds the exponent so the mantissa falls in
+    // [sqrt(1/2), sqrt(2)): 0x3f800000 - float bits of sqrt(1/2)
+    private static final int SQRT_HALF_OFFSET = 0x3f800000 - 0x3f3504f3;
+
+    private FastMath() {
+    }
+
+    /**
+     * Natural logarithm. The mantissa m is taken to [sqrt(1/2), sqrt(2)) and
+     * ln(m) = 2 atanh((m - 1) / (m + 1)) is evaluated with the first four
+     * terms of its series. The error bound is absolute, not relative (ln(x)
+     * vanishes at x = 1): below 1E-7 for x in [1/2, 2] and below 1E-5 for any
+     * positive normal number, where the rounding of exponent * ln(2)
+     * dominates.
+     * <p>
+     * There are no table lookups, only integer and float arithmetic.
+     *
+     * @param x - Positive value
+     * @return ln(x), NaN if x is not positive
+     */
+    public static float log(float x) {
+        if (!(x > 0)) {
+            return Float.NaN;
+        }
+        int bits = Float.floatToRawIntBits(x);
+        int exponent = ((bits + SQRT_HALF_OFFSET) >>> 23) - 127;
+        float m = Float.intBitsToFloat(bits - (exponent << 23));
+        float f = (m - 1) / (m + 1);
+        float f2 = f * f;
+        float series = 1 + f2 * (1f / 3 + f2 * (1f / 5 + f2 * (1f / 7)));
+        return exponent * LN2 + 2 * f * series;
+    }
+
+    /**
+     * Angle of the point (x, y). The arctangent of the ratio of the smaller
+     * to the larger coordinate, in [0, 1], is an 11th-order odd minimax
+     * polynomial, and the octant is restored with selects. The absolute error
+     * is below 2.5E-6 rad. Unlike Math.atan2(), -0 is taken as +0, so
+     * atan2(-0, x < 0) is pi instead of -pi.
+     *
+     * @param y - Ordinate
+     * @param x - Abscissa
+     * @return angle in [-pi, pi], 0 for the origin
+     */
+    public static float atan2(float y, float x) {
+        float ax = Math.abs(x);
+        float ay = Math.abs(y);
+        float max = Math.max(ax, ay);
+        float min = Math.min(ax, ay);
+        float a = (max == 0) ? 0 : min / max;
+        float s = a * a;
+        float r = a * (0.99997726f + s * (-0.33262347f + s * (0.19354346f
+                + s * (-0.11643287f + s * (0.05265332f + s * -0.01172120f)))));
+        r = (ay > ax) ? HALF_PI - r : r;
+        r = (x < 0) ? PI - r : r;
+        return (y < 0) ? -r : r;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder side of StageEvents. This is the only class that links
+ * against jdk.jfr, and it is loaded by reflection once the runtime is known
+ * to have it.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+final class JfrStageEvents implements StageEvents.Recorder {
+
+    private final EventType reconstructionType = EventType.getEventType(ReconstructionStage.class);
+    private final EventType simulationType = EventType.getEventType(SimulationStage.class);
+
+    @Override
+    public Object beginReconstruction() {
+        if (!reconstructionType.isEnabled()) {
+            return null;
+        }
+        ReconstructionStage event = new ReconstructionStage();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commitReconstruction(Object event, String stage, int width, int height,
+            String recoType, double z) {
+        ReconstructionStage e = (ReconstructionStage) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.stage = stage;
+            e.width = width;
+            e.height = height;
+            e.recoType = recoType;
+            e.z = z;
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginSimulation() {
+        if (!simulationType.isEnabled()) {
+            return null;
+        }
+        SimulationStage event = new SimulationStage();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commitSimulation(Object event, String stage, int width, int height) {
+        SimulationStage e = (SimulationStage) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.stage = stage;
+            e.width = width;
+            e.height = height;
+            e.commit();
+        }
+    }
+
+    @Name("unal.od.dhm.ReconstructionStage")
+    @Label("Reconstruction Stage")
+    @Category({"DHM", "Reconstruction"})
+    @Description("A stage of a live reconstruction frame")
+    static final class ReconstructionStage extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Reconstruction Type")
+        String recoType;
+
+        @Label("Distance [um]")
+        double z;
+    }
+
+    @Name("unal.od.dhm.SimulationStage")
+    @Label("Simulation Stage")
+    @Category({"DHM", "Simulation"})
+    @Description("A stage of the simulated imaging system")
+    static final class SimulationStage extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.utils;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.jtransforms.fft.FloatFFT_2D;
+import org.jtransforms.utils.ConcurrencyUtils;
+
+/**
+ * Parallelism of the FFTs and of the per-pixel kernels. The kernels split
+ * their rows in contiguous blocks and run them on the thread pool of
+ * JTransforms. The calling thread runs the first block itself.
+ * ConcurrencyUtils.waitForCompletion() swallows the failures of the tasks, so
+ * their futures are waited for here.
+ * <p>
+ * That pool starts threads on demand, so the counts are per loop, not a
+ * total: concurrent pipeline stages each run their own threads.
+ * <p>
+ * Both thread counts are global, like the one of JTransforms.
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class Parallel {
+
+    // Work below which a block is not worth a task [px]
+    private static final long MIN_BLOCK_COST = 1 << 15;
+    // Timed runs per candidate of the autotuning, the fastest one counts
+    private static final int TUNING_RUNS = 3;
+
+    private static volatile int kernelThreads = 1;
+
+    private Parallel() {
+    }
+
+    /**
+     * Body of a parallel loop
+     */
+    public interface RowBlock {
+
+        /**
+         * Processes the rows [start, end)
+         *
+         * @param block - Index of the block
+         * @param start - First row
+         * @param end - Row after the last one
+         */
+        void run(int block, int start, int end);
+    }
+
+    /**
+     * Threads available to the process
+     *
+     * @return number of processors
+     */
+    public static int getMaxThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Sets the threads of the FFTs. JTransforms rounds the count down to a
+     * power of two, getFFTThreads() returns the applied one.
+     *
+     * @param threads - Thread count, at least 1
+     */
+    public static void setFFTThreads(int threads) {
+        ConcurrencyUtils.setNumberOfThreads(Math.max(1, threads));
+    }
+
+    public static int getFFTThreads() {
+        return ConcurrencyUtils.getNumberOfThreads();
+    }
+
+    /**
+     * Sets the threads of the per-pixel kernels
+     *
+     * @param threads - Thread count, at least 1
+     */
+    public static void setKernelThreads(int threads) {
+        kernelThreads = Math.max(1, threads);
+    }
+
+    public static int getKernelThreads() {
+        return kernelThreads;
+    }
+
+    /**
+     * Number of blocks a loop is split into
+     *
+     * @param rows - Number of rows
+     * @param rowCost - Work per row [px]
+     * @return block count, 1 for a sequential loop
+     */
+    public static int blockCount(int rows, long rowCost) {
+        long worthy = rows * rowCost / MIN_BLOCK_COST;
+        return (int) Math.max(1, Math.min(Math.min(kernelThreads, rows), worthy));
+    }
+
+    /**
+     * Runs a loop over rows, split in as many blocks as the kernel threads
+     * and the work allow. Loops that run every frame should keep a Loop
+     * instead, this one allocates its tasks.
+     *
+     * @param rows - Number of rows
+     * @param rowCost - Work per row [px]
+     * @param body - Loop body
+     */
+    public static void forRows(int rows, long rowCost, RowBlock body) {
+        new Loop(body).forRows(rows, rowCost);
+    }
+
+    /**
+     * Runs a loop over rows split in a given number of blocks. Use it with
+     * blockCount() when the blocks write partial results.
+     *
+     * @param rows - Number of rows
+     * @param blocks - Number of blocks
+     * @param body - Loop body
+     */
+    public static void forBlocks(int rows, int blocks, RowBlock body) {
+        new Loop(body).forBlocks(rows, blocks);
+    }
+
+    /**
+     * Parallel loop that is run many times, such as the kernels of every
+     * frame. The body, the block tasks and the futures are kept between runs,
+     * so a run only allocates the wrapper the thread pool makes of each task.
+     * The body has to read its arguments from fields of its owner, set before
+     * each run.
+     * <p>
+     * A loop runs one call at a time, so it must not be shared between
+     * threads.
+     */
+    public static final class Loop {
+
+        private final RowBlock body;
+        private Runnable[] tasks = new Runnable[0];
+        private Future<?>[] futures = new Future<?>[0];
+        // Rows and blocks of the current run, read by the tasks
+        private int rows;
+        private int blocks;
+
+        /**
+         * @param body - Loop body
+         */
+        public Loop(RowBlock body) {
+            this.body = body;
+        }
+
+        /**
+         * Runs the loop over rows, split in as many blocks as the kernel
+         * threads and the work allow
+         *
+         * @param rows - Number of rows
+         * @param rowCost - Work per row [px]
+         */
+        public void forRows(int rows, long rowCost) {
+            forBlocks(rows, blockCount(rows, rowCost));
+        }
+
+        /**
+         * Runs the loop over rows split in a given number of blocks
+         *
+         * @param rows - Number of rows
+         * @param blocks - Number of blocks
+         */
+        public void forBlocks(int rows, int blocks) {
+            if (blocks <= 1) {
+                body.run(0, 0, rows);
+                return;
+            }
+
+            if (tasks.length < blocks) {
+                // Only when the thread count grows
+                tasks = new Runnable[blocks];
+                futures = new Future<?>[blocks];
+                for (int b = 0; b < blocks; b++) {
+                    int block = b;
+                    tasks[b] = () -> runBlock(block);
+                }
+            }
+            this.rows = rows;
+            this.blocks = blocks;
+
+            for (int b = 1; b < blocks; b++) {
+                futures[b] = ConcurrencyUtils.submit(tasks[b]);
+            }
+            // Every block is waited for, even after a failure, since they
+            // read the state of the run
+            Throwable failure = null;
+            try {
+                runBlock(0);
+            } catch (RuntimeException | Error ex) {
+                failure = ex;
+            }
+            boolean interrupted = false;
+            for (int b = 1; b < blocks; b++) {
+                while (true) {
+                    try {
+                        futures[b].get();
+                        break;
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    } catch (ExecutionException ex) {
+                        if (failure == null) {
+                            failure = ex.getCause();
+                        }
+                        break;
+                    }
+                }
+                futures[b] = null;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new IllegalStateException(failure);
+            }
+        }
+
+        private void runBlock(int b) {
+            body.run(b, (int) ((long) rows * b / blocks), (int) ((long) rows * (b + 1) / blocks));
+        }
+    }
+
+    /**
+     * Finds the fastest thread counts for the FFTs and the kernels of a frame
+     * size, timing a forward and inverse FFT and a complex product with 1, 2,
+     * 4... up to all the processors. The FFT count returned is the one
+     * JTransforms applied, a power of two. The current thread counts are
+     * kept. Run it while nothing else uses the threads, or the timings are
+     * disturbed.
+     *
+     * @param field - Scratch buffer of 2 * width * height, overwritten
+     * @param phasor - Scratch buffer of 2 * width * height, overwritten
+     * @param width - Frame width [px]
+     * @param height - Frame height [px]
+     * @return {FFT threads, kernel threads}
+     */
+    public static int[] autotune(float[] field, float[] phasor, int width, int height) {
+        int fftBefore = getFFTThreads();
+        int kernelBefore = getKernelThreads();
+
+        Random random = new Random(0);
+        for (int i = 0; i < 2 * width * height; i += 2) {
+            field[i] = random.nextFloat();
+            field[i + 1] = 0;
+            double phase = 2 * Math.PI * random.nextFloat();
+            phasor[i] = (float) Math.cos(phase);
+            phasor[i + 1] = (float) Math.sin(phase);
+        }
+        FloatFFT_2D fft = FFTPlanCache.getFloat2D(height, width);
+
+        int bestFFT = 1;
+        int bestKernel = 1;
+        long bestFFTTime = Long.MAX_VALUE;
+        long bestKernelTime = Long.MAX_VALUE;
+        int max = getMaxThreads();
+        try {
+            for (int threads = 1; threads <= max; threads = nextCandidate(threads, max)) {
+                setFFTThreads(threads);
+                setKernelThreads(threads);
+                long fftTime = Long.MAX_VALUE;
+                long kernelTime = Long.MAX_VALUE;
+                for (int run = 0; run < TUNING_RUNS; run++) {
+                    long start = System.nanoTime();
+                    // The inverse keeps the values bounded between runs
+                    fft.complexForward(field);
+                    fft.complexInverse(field, true);
+                    long middle = System.nanoTime();
+                    multiply(field, phasor, width, height);
+                    long end = System.nanoTime();
+                    fftTime = Math.min(fftTime, middle - start);
+                    kernelTime = Math.min(kernelTime, end - middle);
+                }
+                if (fftTime < bestFFTTime) {
+                    bestFFTTime = fftTime;
+                    bestFFT = getFFTThreads();
+                }
+                if (kernelTime < bestKernelTime) {
+                    bestKernelTime = kernelTime;
+                    bestKernel = threads;
+                }
+            }
+        } finally {
+            setFFTThreads(fftBefore);
+            setKernelThreads(kernelBefore);
+        }
+        return new int[]{bestFFT, bestKernel};
+    }
+
+    /**
+     * Doubles the candidate, ending with the processor count
+     */
+    private static int nextCandidate(int threads, int max) {
+        if (threads == max) {
+            return max + 1;
+        }
+        return Math.min(2 * threads, max);
+    }
+
+    /**
+     * Complex product in place, the typical per-pixel kernel
+     */
+    private static void multiply(float[] field, float[] phasor, int width, int height) {
+        forRows(height, width, (block, start, end) -> {
+            for (int n = 2 * start * width; n < 2 * end * width; n += 2) {
+                float re = field[n];
+                float im = field[n + 1];
+                field[n] = re * phasor[n] - im * phasor[n + 1];
+                field[n + 1] = re * phasor[n + 1] + im * phasor[n];
+            }
+        });
+    }
+}
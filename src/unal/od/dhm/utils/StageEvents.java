@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.utils;
+
+/**
+ * Java Flight Recorder events of the reconstruction and simulation stages.
+ * The plugin targets Java 8 runtimes that may lack jdk.jfr, so the events are
+ * only touched through this class: when the runtime has no flight recorder,
+ * or when the events are not enabled in a running recording, begin() returns
+ * null and nothing is allocated.
+ * <p>
+ * The events themselves (JfrStageEvents) need a build JDK with jdk.jfr, 8u262
+ * or later, or 11 or later. The build compiles them apart and leaves them out
+ * with older JDKs, which records nothing as well.
+ * <p>
+ * Usage:
+ * <pre>
+ * Object event = StageEvents.beginReconstruction();
+ * ... stage ...
+ * StageEvents.commitReconstruction(event, "Propagate", width, height, "Phase", z);
+ * </pre>
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public final class StageEvents {
+
+    private static final Recorder RECORDER = createRecorder();
+
+    private StageEvents() {
+    }
+
+    private static Recorder createRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName("unal.od.dhm.utils.JfrStageEvents")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            // Runtime without flight recorder, or built without the events
+            return null;
+        }
+    }
+
+    /**
+     * Whether the runtime can record the events
+     *
+     * @return true if jdk.jfr is available
+     */
+    public static boolean isAvailable() {
+        return RECORDER != null;
+    }
+
+    /**
+     * Starts a reconstruction stage event
+     *
+     * @return event to commit, null if it is not recorded
+     */
+    public static Object beginReconstruction() {
+        return (RECORDER == null) ? null : RECORDER.beginReconstruction();
+    }
+
+    /**
+     * Ends and commits a reconstruction stage event
+     *
+     * @param event - Event returned by beginReconstruction(), may be null
+     * @param stage - Name of the stage
+     * @param width - Width of the processed field [px]
+     * @param height - Height of the processed field [px]
+     * @param recoType - Reconstructed quantity
+     * @param z - Refocusing distance [um]
+     */
+    public static void commitReconstruction(Object event, String stage, int width, int height,
+            String recoType, double z) {
+        if (event != null) {
+            RECORDER.commitReconstruction(event, stage, width, height, recoType, z);
+        }
+    }
+
+    /**
+     * Starts a simulation stage event
+     *
+     * @return event to commit, null if it is not recorded
+     */
+    public static Object beginSimulation() {
+        return (RECORDER == null) ? null : RECORDER.beginSimulation();
+    }
+
+    /**
+     * Ends and commits a simulation stage event
+     *
+     * @param event - Event returned by beginSimulation(), may be null
+     * @param stage - Name of the stage
+     * @param width - Width of the simulated field [px]
+     * @param height - Height of the simulated field [px]
+     */
+    public static void commitSimulation(Object event, String stage, int width, int height) {
+        if (event != null) {
+            RECORDER.commitSimulation(event, stage, width, height);
+        }
+    }
+
+    /**
+     * Implemented by the class that uses jdk.jfr
+     */
+    interface Recorder {
+
+        Object beginReconstruction();
+
+        void commitReconstruction(Object event, String stage, int width, int height,
+                String recoType, double z);
+
+        Object beginSimulation();
+
+        void commitSimulation(Object event, String stage, int width, int height);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests of the checksum and of the frame states of FrameChangeDetector
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class FrameChangeDetectorTest {
+
+    private static final long CHECKSUM = 11;
+    private static final long SETTINGS = 4;
+
+    @Test
+    public void checksumFollowsThePixels() {
+        byte[] pixels = new byte[1001];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) (i * 7);
+        }
+        long checksum = FrameChangeDetector.checksum(pixels);
+        assertEquals(checksum, FrameChangeDetector.checksum(pixels.clone()));
+
+        // Each accumulator and the tail
+        for (int i : new int[]{0, 1, 2, 3, 1000}) {
+            byte[] changed = pixels.clone();
+            changed[i]++;
+            assertNotEquals("pixel " + i, checksum, FrameChangeDetector.checksum(changed));
+        }
+    }
+
+    @Test
+    public void checksumOfEveryPixelType() {
+        short[] shorts = {1, 2, 3, 4, 5};
+        float[] floats = {1, 2, 3, 4, 5};
+        int[] ints = {1, 2, 3, 4, 5};
+        assertEquals(FrameChangeDetector.checksum(shorts),
+                FrameChangeDetector.checksum(shorts.clone()));
+        assertEquals(FrameChangeDetector.checksum(floats),
+                FrameChangeDetector.checksum(floats.clone()));
+        assertEquals(FrameChangeDetector.checksum(ints),
+                FrameChangeDetector.checksum(ints.clone()));
+
+        shorts[4] = 6;
+        floats[4] = 5.5f;
+        ints[4] = 6;
+        assertNotEquals(FrameChangeDetector.checksum(new short[]{1, 2, 3, 4, 5}),
+                FrameChangeDetector.checksum(shorts));
+        assertNotEquals(FrameChangeDetector.checksum(new float[]{1, 2, 3, 4, 5}),
+                FrameChangeDetector.checksum(floats));
+        assertNotEquals(FrameChangeDetector.checksum(new int[]{1, 2, 3, 4, 5}),
+                FrameChangeDetector.checksum(ints));
+    }
+
+    @Test
+    public void checksumCountsTrailingZeros() {
+        assertNotEquals(FrameChangeDetector.checksum(new byte[4]),
+                FrameChangeDetector.checksum(new byte[5]));
+    }
+
+    @Test
+    public void firstFrameChanged() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+    }
+
+    @Test
+    public void pendingFrameIsNotRepeated() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        assertFalse(detector.hasChanged(CHECKSUM, SETTINGS));
+    }
+
+    @Test
+    public void displayedFrameIsNotRepeated() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        detector.displayed(CHECKSUM, SETTINGS);
+        assertFalse(detector.hasChanged(CHECKSUM, SETTINGS));
+    }
+
+    @Test
+    public void discardedFrameIsReconstructedAgain() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        detector.discarded(CHECKSUM, SETTINGS);
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+    }
+
+    @Test
+    public void discardedFrameKeepsTheDisplayedOne() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        detector.displayed(CHECKSUM, SETTINGS);
+
+        assertTrue(detector.hasChanged(CHECKSUM + 1, SETTINGS));
+        detector.discarded(CHECKSUM + 1, SETTINGS);
+        assertFalse(detector.hasChanged(CHECKSUM, SETTINGS));
+        assertTrue(detector.hasChanged(CHECKSUM + 1, SETTINGS));
+    }
+
+    @Test
+    public void discardOfAnotherFrameKeepsThePendingOne() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        detector.discarded(CHECKSUM + 1, SETTINGS);
+        assertFalse(detector.hasChanged(CHECKSUM, SETTINGS));
+    }
+
+    @Test
+    public void newSettingsChangeTheFrame() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        detector.displayed(CHECKSUM, SETTINGS);
+
+        // Next settings version, and same version with another reconstruction type
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS + 4));
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS + 1));
+        // Back to the displayed settings
+        assertFalse(detector.hasChanged(CHECKSUM, SETTINGS));
+    }
+
+    @Test
+    public void resetForgetsEveryFrame() {
+        FrameChangeDetector detector = new FrameChangeDetector();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        detector.displayed(CHECKSUM, SETTINGS);
+        assertTrue(detector.hasChanged(CHECKSUM + 1, SETTINGS));
+
+        detector.reset();
+        assertTrue(detector.hasChanged(CHECKSUM, SETTINGS));
+        detector.reset();
+        assertTrue(detector.hasChanged(CHECKSUM + 1, SETTINGS));
+    }
+}
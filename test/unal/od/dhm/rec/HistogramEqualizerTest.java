@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import ij.plugin.ContrastEnhancer;
+import ij.process.ByteProcessor;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests HistogramEqualizer against ImageJ's "Enhance Contrast"
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class HistogramEqualizerTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+
+    @Test
+    public void equalizationMatchesImageJ() {
+        for (long seed = 0; seed < 5; seed++) {
+            byte[] pixels = spectrumLike(seed);
+            assertArrayEquals("seed " + seed, imageJEqualized(pixels), equalized(pixels));
+        }
+    }
+
+    @Test
+    public void equalizationOfSparseHistograms() {
+        // Bins of one count keep their weight, as in ImageJ
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        pixels[0] = 10;
+        pixels[1] = (byte) 200;
+        pixels[2] = (byte) 255;
+        assertArrayEquals(imageJEqualized(pixels), equalized(pixels));
+
+        byte[] flat = new byte[WIDTH * HEIGHT];
+        Arrays.fill(flat, (byte) 77);
+        assertArrayEquals(imageJEqualized(flat), equalized(flat));
+    }
+
+    @Test
+    public void stretchSaturatesLikeImageJ() {
+        for (double saturated : new double[]{0.1, 0.35, 1, 5}) {
+            byte[] pixels = spectrumLike(7);
+            ByteProcessor reference = new ByteProcessor(WIDTH, HEIGHT, pixels.clone());
+            new ContrastEnhancer().stretchHistogram(reference, saturated);
+            int low = (int) reference.getMin();
+            int high = (int) reference.getMax();
+            assertTrue(high > low);
+
+            byte[] stretched = pixels.clone();
+            new HistogramEqualizer().stretch(stretched, saturated);
+            int previous = -1;
+            int[] order = sortedIndices(pixels);
+            for (int i : order) {
+                int in = pixels[i] & 0xff;
+                int out = stretched[i] & 0xff;
+                String at = saturated + "% value " + in;
+                if (in <= low) {
+                    assertEquals(at, 0, out);
+                } else if (in >= high) {
+                    assertEquals(at, 255, out);
+                } else {
+                    assertEquals(at, (in - low) * 255.0 / (high - low), out, 0.5);
+                }
+                assertTrue(at, out >= previous);
+                previous = out;
+            }
+        }
+    }
+
+    @Test
+    public void stretchKeepsAFlatImage() {
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        Arrays.fill(pixels, (byte) 77);
+        new HistogramEqualizer().stretch(pixels, 1);
+        for (byte p : pixels) {
+            assertEquals(77, p);
+        }
+    }
+
+    private static byte[] equalized(byte[] pixels) {
+        byte[] equalized = pixels.clone();
+        new HistogramEqualizer().equalize(equalized);
+        return equalized;
+    }
+
+    private static byte[] imageJEqualized(byte[] pixels) {
+        ByteProcessor reference = new ByteProcessor(WIDTH, HEIGHT, pixels.clone());
+        new ContrastEnhancer().equalize(reference);
+        return (byte[]) reference.getPixels();
+    }
+
+    /**
+     * Dark background with a few bright peaks, as in a log-scaled spectrum
+     */
+    private static byte[] spectrumLike(long seed) {
+        Random random = new Random(seed);
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            double v = 40 + 15 * random.nextGaussian();
+            if (random.nextInt(200) == 0) {
+                v = 150 + 100 * random.nextDouble();
+            }
+            pixels[i] = (byte) Math.max(0, Math.min(255, Math.round(v)));
+        }
+        return pixels;
+    }
+
+    private static int[] sortedIndices(byte[] pixels) {
+        return IntStream.range(0, pixels.length).boxed()
+                .sorted((a, b) -> Integer.compare(pixels[a] & 0xff, pixels[b] & 0xff))
+                .mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.rec;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import org.jtransforms.fft.FloatFFT_2D;
+import org.junit.Test;
+
+/**
+ * Tests that the packed half spectrum of realForward gives the same order
+ * position and the same filtered field as the complete spectrum
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class PackedSpectrumTest {
+
+    // Relative tolerance between the two transforms
+    private static final float TOLERANCE = 1E-5f;
+
+    // Sizes of the holograms, width x height
+    private static final int[][] SIZES = {{64, 64}, {64, 32}, {32, 64}};
+
+    @Test
+    public void locatePackedMatchesTheFullSpectrum() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            float[] hologram = hologram(width, height);
+            float[] packed = packed(hologram, width, height);
+            float[] full = full(hologram, width, height);
+            float tolerance = TOLERANCE * max(full);
+
+            int[] location = new int[3];
+            for (int k1 = 0; k1 < height; k1++) {
+                for (int k2 = 0; k2 < width; k2++) {
+                    SpectralTransferFunction.locatePacked(height, width, k1, k2, location);
+                    float re = packed[location[0]];
+                    float im = (location[1] < 0) ? 0 : location[2] * packed[location[1]];
+                    int f = 2 * (k1 * width + k2);
+                    String at = width + "x" + height + " (" + k2 + ", " + k1 + ")";
+                    assertEquals(at, full[f], re, tolerance);
+                    assertEquals(at, full[f + 1], im, tolerance);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void peakMatchesTheFullSpectrum() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            float[] hologram = hologram(width, height);
+            float[] packed = packed(hologram, width, height);
+            float[] full = full(hologram, width, height);
+
+            Rectangle upperHalf = new Rectangle(0, 0, width, height / 2 + 1);
+            float excludeX = 0.1f * width;
+            float excludeY = 0.1f * height;
+            float[] fromFull = OrderDetector.findPeak(full, false, width, height,
+                    upperHalf, excludeX, excludeY);
+            float[] fromPacked = OrderDetector.findPeak(packed, true, width, height,
+                    upperHalf, excludeX, excludeY);
+            assertNotNull(fromFull);
+            assertNotNull(fromPacked);
+            assertEquals(fromFull[0], fromPacked[0], 1E-3f);
+            assertEquals(fromFull[1], fromPacked[1], 1E-3f);
+            assertEquals(fromFull[2], fromPacked[2], TOLERANCE * fromFull[2]);
+
+            // Order of the upper half, the conjugate of the carrier
+            assertEquals(width / 2 - carrierX(width), Math.round(fromFull[0]));
+            assertEquals(height / 2 - carrierY(height), Math.round(fromFull[1]));
+        }
+    }
+
+    @Test
+    public void peakWithScratchMatchesThePeak() {
+        int width = 64;
+        int height = 32;
+        float[] packed = packed(hologram(width, height), width, height);
+        Rectangle window = new Rectangle(width / 2, 0, width / 2, height / 2);
+
+        float[] peak = new float[3];
+        boolean found = OrderDetector.findPeak(packed, true, width, height, window, 0, 0,
+                peak, new int[3]);
+        float[] expected = OrderDetector.findPeak(packed, true, width, height, window, 0, 0);
+        assertEquals(expected != null, found);
+        assertArrayEquals(expected, peak, 0);
+    }
+
+    @Test
+    public void rectangleCopyMatchesTheFullSpectrum() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            // Crosses the Nyquist column and the zero row of the shifted spectrum
+            Rectangle roi = new Rectangle(width / 2 - 5, 0, 14, height / 2 + 3);
+            assertSameCopy(width, height, roi, null);
+        }
+    }
+
+    @Test
+    public void maskedCopyMatchesTheFullSpectrum() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            float[] order = {width / 2 - carrierX(width), height / 2 - carrierY(height), 6, 5};
+            Rectangle roi = OrderDetector.filterBounds(order, width, height);
+            int[][] mask = OrderDetector.filterMask(order, roi);
+            assertSameCopy(width, height, roi, mask);
+        }
+    }
+
+    private static void assertSameCopy(int width, int height, Rectangle roi, int[][] mask) {
+        float[] hologram = hologram(width, height);
+        float[] packed = packed(hologram, width, height);
+        float[] full = full(hologram, width, height);
+        ReconstructionParameters params = new ReconstructionParameters(width, height)
+                .withFilter(roi, mask);
+
+        SpectrumCenterer centerer = new SpectrumCenterer();
+        ComplexField fromFull = new ComplexField(width, height);
+        ComplexField fromPacked = new ComplexField(width, height);
+        centerer.copy(full, false, width, height, params, fromFull);
+        centerer.copy(packed, true, width, height, params, fromPacked);
+
+        float tolerance = TOLERANCE * max(full);
+        assertArrayEquals(width + "x" + height + " " + roi, fromFull.getData(),
+                fromPacked.getData(), tolerance);
+    }
+
+    /**
+     * Off-axis hologram with a tilted carrier, an object phase and noise
+     */
+    private static float[] hologram(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        float[] hologram = new float[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double carrier = 2 * Math.PI * ((double) carrierX(width) * x / width
+                        + (double) carrierY(height) * y / height);
+                double object = Math.sin(2 * Math.PI * x / width) * Math.cos(Math.PI * y / height);
+                hologram[y * width + x] = (float) (1 + Math.cos(carrier + object)
+                        + 0.1 * random.nextGaussian());
+            }
+        }
+        return hologram;
+    }
+
+    private static int carrierX(int width) {
+        return width / 4;
+    }
+
+    private static int carrierY(int height) {
+        return height / 8;
+    }
+
+    private static float[] packed(float[] hologram, int width, int height) {
+        float[] spectrum = hologram.clone();
+        new FloatFFT_2D(height, width).realForward(spectrum);
+        return spectrum;
+    }
+
+    private static float[] full(float[] hologram, int width, int height) {
+        float[] spectrum = new float[2 * width * height];
+        System.arraycopy(hologram, 0, spectrum, 0, hologram.length);
+        new FloatFFT_2D(height, width).realForwardFull(spectrum);
+        return spectrum;
+    }
+
+    private static float max(float[] values) {
+        float max = 0;
+        for (float v : values) {
+            max = Math.max(max, Math.abs(v));
+        }
+        return max;
+    }
+}
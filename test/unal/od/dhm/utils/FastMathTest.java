@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 Universidad Nacional de Colombia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unal.od.dhm.utils;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the error bounds documented in FastMath against java.lang.Math
+ *
+ * @author Carlos Buitrago <cabuitragod@unal.edu.co>
+ * @author: Jorge Garcia-Sucerquia <jisucerquia@unal.edu.co>
+ */
+public class FastMathTest {
+
+    private static final double LOG_NEAR_ONE_BOUND = 1E-7;
+    private static final double LOG_BOUND = 1E-5;
+    private static final double ATAN2_BOUND = 2.5E-6;
+
+    private static final int SAMPLES = 1000000;
+
+    @Test
+    public void logNearOne() {
+        // Every float in [1/2, 2]
+        float end = 2;
+        for (float x = 0.5f; x <= end; x = Math.nextUp(x)) {
+            assertLog(x, LOG_NEAR_ONE_BOUND);
+        }
+    }
+
+    @Test
+    public void logOfNormalNumbers() {
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Positive normal floats, uniform in the bits
+            int bits = 0x00800000 + random.nextInt(0x7f800000 - 0x00800000);
+            assertLog(Float.intBitsToFloat(bits), LOG_BOUND);
+        }
+        assertLog(Float.MIN_NORMAL, LOG_BOUND);
+        assertLog(Float.MAX_VALUE, LOG_BOUND);
+    }
+
+    @Test
+    public void logOfNonPositiveValues() {
+        assertTrue(Float.isNaN(FastMath.log(0)));
+        assertTrue(Float.isNaN(FastMath.log(-0f)));
+        assertTrue(Float.isNaN(FastMath.log(-1)));
+        assertTrue(Float.isNaN(FastMath.log(Float.NaN)));
+    }
+
+    @Test
+    public void atan2OfEveryOctant() {
+        Random random = new Random(2);
+        for (int i = 0; i < SAMPLES; i++) {
+            float y = (float) random.nextGaussian();
+            float x = (float) random.nextGaussian();
+            assertAtan2(y, x);
+        }
+    }
+
+    @Test
+    public void atan2OfTheAxesAndDiagonals() {
+        float[] values = {-3, -1, 0, 1, 3, Float.MIN_VALUE, 1E30f};
+        for (float y : values) {
+            for (float x : values) {
+                assertAtan2(y, x);
+            }
+        }
+        assertEquals(0, FastMath.atan2(0, 0), 0);
+    }
+
+    @Test
+    public void atan2OfNegativeZero() {
+        assertEquals(Math.PI, FastMath.atan2(-0f, -1), ATAN2_BOUND);
+        assertEquals(0, FastMath.atan2(-0f, 1), 0);
+    }
+
+    private static void assertLog(float x, double bound) {
+        double error = Math.abs(FastMath.log(x) - Math.log(x));
+        if (!(error < bound)) {
+            assertEquals("log(" + x + ")", Math.log(x), FastMath.log(x), bound);
+        }
+    }
+
+    private static void assertAtan2(float y, float x) {
+        double error = Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x));
+        if (!(error < ATAN2_BOUND)) {
+            assertEquals("atan2(" + y + ", " + x + ")", Math.atan2(y, x),
+                    FastMath.atan2(y, x), ATAN2_BOUND);
+        }
+    }
+}